@@ -0,0 +1,134 @@
+/**
+ * Shogi - a simple online multiplayer game of Japanese chess.
+ * Copyright (C) 2018 Tomasz Ciborski
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package pl.umk.mat.tomaszcib.Benchmark;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Minimal microbenchmark harness: runs an operation in warmup and measurement iterations of fixed duration
+ * and reports its throughput with an error margin, together with the allocation rate and the garbage collector
+ * activity of the measurement. Results of the operation are consumed, so the JIT can not eliminate it.
+ */
+final class Harness {
+    /**
+     * Benchmarked operation.
+     */
+    interface Operation {
+        /**
+         * Runs the operation once.
+         * @return any value depending on the work done.
+         */
+        long run();
+    }
+
+    /* Sink for the results of operations */
+    private static volatile long sink;
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final int warmupIterations, iterations;
+    private final long iterationMillis;
+
+    /**
+     * Creates a harness.
+     * @param warmupIterations number of iterations run before measuring.
+     * @param iterations number of measured iterations.
+     * @param iterationMillis duration of every iteration in milliseconds.
+     */
+    Harness(int warmupIterations, int iterations, long iterationMillis){
+        this.warmupIterations = warmupIterations;
+        this.iterations = iterations;
+        this.iterationMillis = iterationMillis;
+    }
+
+    /**
+     * Prints the header of the results table.
+     */
+    static void printHeader(){
+        System.out.printf("%-28s %14s %10s %10s %10s %6s %8s%n", "benchmark", "ops/s", "error", "ns/op",
+                "B/op", "gc", "gc [ms]");
+    }
+
+    /* Bytes allocated so far by the current thread or -1 if not supported by the JVM */
+    private static long allocatedBytes(){
+        if(THREADS instanceof com.sun.management.ThreadMXBean)
+            return ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(Thread.currentThread().getId());
+        return -1;
+    }
+
+    /* Total number of collections [0] and their time [1] of all the garbage collectors */
+    private static long[] gcStats(){
+        long[] stats = new long[2];
+        for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()){
+            stats[0] += Math.max(gc.getCollectionCount(), 0);
+            stats[1] += Math.max(gc.getCollectionTime(), 0);
+        }
+        return stats;
+    }
+
+    /* Runs the operation for the iteration time and returns number of operations done */
+    private long iteration(Operation op, long[] nanos){
+        long ops = 0, result = 0;
+        long start = System.nanoTime(), end = start + iterationMillis * 1000000L, now;
+        do {
+            for(int i = 0; i < 64; i++)
+                result += op.run();
+            ops += 64;
+            now = System.nanoTime();
+        } while(now < end);
+        sink += result;
+        nanos[0] = now - start;
+        return ops;
+    }
+
+    /**
+     * Benchmarks an operation and prints a row of the results table.
+     * @param name name of the benchmark.
+     * @param op benchmarked operation.
+     * @return mean throughput in operations per second.
+     */
+    double run(String name, Operation op){
+        long[] nanos = new long[1];
+        double[] throughput = new double[iterations];
+        long totalOps = 0;
+        for(int i = 0; i < warmupIterations; i++)
+            iteration(op, nanos);
+        long[] gcBefore = gcStats();
+        long bytesBefore = allocatedBytes();
+        for(int i = 0; i < iterations; i++){
+            long ops = iteration(op, nanos);
+            totalOps += ops;
+            throughput[i] = ops * 1e9 / nanos[0];
+        }
+        long bytes = allocatedBytes() - bytesBefore;
+        long[] gcAfter = gcStats();
+        double mean = 0, variance = 0;
+        for(double t : throughput)
+            mean += t / iterations;
+        for(double t : throughput)
+            variance += (t - mean) * (t - mean) / Math.max(iterations - 1, 1);
+        /* Half-width of the 99.9% confidence interval (normal approximation) */
+        double error = 3.29 * Math.sqrt(variance / iterations);
+        System.out.printf("%-28s %14.0f %10.0f %10.1f %10s %6d %8d%n", name, mean, error, 1e9 / mean,
+                bytesBefore < 0 ? "n/a" : String.format("%.1f", (double) bytes / totalOps),
+                gcAfter[0] - gcBefore[0], gcAfter[1] - gcBefore[1]);
+        return mean;
+    }
+}
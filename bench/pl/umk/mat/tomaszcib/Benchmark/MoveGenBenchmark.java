@@ -0,0 +1,99 @@
+/**
+ * Shogi - a simple online multiplayer game of Japanese chess.
+ * Copyright (C) 2018 Tomasz Ciborski
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package pl.umk.mat.tomaszcib.Benchmark;
+
+import pl.umk.mat.tomaszcib.GameLogic.*;
+
+/**
+ * Compares throughput of the bitboard {@link MoveGenerator} with the original square-by-square generator
+ * ({@link LegacyMoveGenerator}). Both generators regenerate all the moves of the player to move, the same way
+ * it is done after every move of the game. Run with an optional measuring time in milliseconds per position.
+ */
+public class MoveGenBenchmark {
+
+    /**
+     * Benchmarked positions in SFEN notation: start, two middle games and a position with many pieces in hand.
+     */
+    static final String[] POSITIONS = {
+            Position.START_SFEN,
+            "lnsgk2nl/1r4gs1/p1pppp1pp/1p4p2/7P1/2P6/PP1PPPP1P/1SG4R1/LN2KGSNL b Bb 1",
+            "l6nl/5+P1gk/2np1S3/p1p4Pp/3P2Sp1/1PPb2P1P/P5GS1/R8/LN4bKL w RGgsn5p 1",
+            "R8/2K1S1SSk/4B4/9/9/9/9/9/1L1L1L3 b RBGSNLP3g3n17p 1"
+    };
+
+    private final CurrentBoard board;
+    private final Piece[] piece;
+    private final int[] squarePieceId;
+    private final LegacyMoveGenerator legacyGenerator = new LegacyMoveGenerator();
+    private final int player;
+
+    /**
+     * Prepares the benchmark of a given position.
+     * @param sfen position in SFEN notation.
+     */
+    MoveGenBenchmark(String sfen){
+        board = CurrentBoard.fromSfen(sfen);
+        piece = board.piece;
+        squarePieceId = board.squarePieceId;
+        player = board.getCurPlayer();
+    }
+
+    /* Regeneration as performed by CurrentBoard after every move */
+    private int regenerate(){
+        int count = 0;
+        board.generateValidMoves();
+        for(int i = 0; i < 40; i++)
+            count += board.getValidMoves(i).size();
+        return count;
+    }
+
+    /* Runs a regeneration repeatedly for a given time and returns number of generated moves per second */
+    private double measure(boolean legacy, long millis){
+        long moves = 0;
+        long start = System.nanoTime();
+        long end = start + millis * 1000000L;
+        long now;
+        do {
+            for(int i = 0; i < 100; i++)
+                moves += legacy ? legacyGenerator.regenerate(piece, squarePieceId, player) : regenerate();
+            now = System.nanoTime();
+        } while(now < end);
+        return moves * 1e9 / (now - start);
+    }
+
+    /**
+     * Runs the benchmark.
+     * @param args optional measuring time in milliseconds per position and generator (default 2000).
+     */
+    public static void main(String[] args){
+        long millis = args.length > 0 ? Long.parseLong(args[0]) : 2000;
+        System.out.printf("%-6s %8s %8s %14s %14s %8s%n", "pos", "legacy", "bitbrd", "legacy mv/s", "bitbrd mv/s", "gain");
+        for(int i = 0; i < POSITIONS.length; i++){
+            MoveGenBenchmark b = new MoveGenBenchmark(POSITIONS[i]);
+            int legacyCount = b.legacyGenerator.regenerate(b.piece, b.squarePieceId, b.player);
+            int count = b.regenerate();
+            b.measure(true, millis / 4);
+            b.measure(false, millis / 4);
+            double legacy = b.measure(true, millis);
+            double bitboard = b.measure(false, millis);
+            System.out.printf("%-6d %8d %8d %14.0f %14.0f %7.2fx%n", i, legacyCount, count, legacy, bitboard,
+                    bitboard / legacy);
+        }
+    }
+}
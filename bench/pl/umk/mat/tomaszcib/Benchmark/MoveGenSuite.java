@@ -0,0 +1,133 @@
+/**
+ * Shogi - a simple online multiplayer game of Japanese chess.
+ * Copyright (C) 2018 Tomasz Ciborski
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package pl.umk.mat.tomaszcib.Benchmark;
+
+import pl.umk.mat.tomaszcib.GameLogic.*;
+
+/**
+ * Benchmark suite of the code run after every move of the game: the piece-wise generation and validation
+ * of {@link PieceMoveGenerator}, {@link MoveGenerator#generateDrops}, a full regeneration as done
+ * by {@link CurrentBoard#updateMoves()} and {@link MoveGenerator#generateLegalMoves}. Every benchmark runs over
+ * a corpus of opening, middle game, check and heavy-hand positions, reporting throughput, allocated bytes
+ * per operation and garbage collections.<br><br>
+ * Usage: <b>MoveGenSuite [iteration time in ms] [filter]</b>, where only benchmarks containing the filter
+ * in their names are run.
+ */
+public class MoveGenSuite {
+
+    /**
+     * The corpus of positions in SFEN notation, with their names.
+     */
+    static final String[][] CORPUS = {
+            {"opening", Position.START_SFEN},
+            {"middle", "lnsgk2nl/1r4gs1/p1pppp1pp/1p4p2/7P1/2P6/PP1PPPP1P/1SG4R1/LN2KGSNL b Bb 1"},
+            {"matsuri", "l6nl/5+P1gk/2np1S3/p1p4Pp/3P2Sp1/1PPb2P1P/P5GS1/R8/LN4bKL w RGgsn5p 1"},
+            {"check", "lnsgkgsnl/7b1/pppp1pppp/9/4r4/9/PPPP1PPPP/1B5R1/LNSGKGSNL b Pp 1"},
+            {"hand", "R8/2K1S1SSk/4B4/9/9/9/9/9/1L1L1L3 b RBGSNLP3g3n17p 1"}
+    };
+
+    private final CurrentBoard board;
+    private final Piece[] piece;
+    private final MoveGenerator moveGenerator = new MoveGenerator();
+    private final PieceMoveGenerator pieceGenerator = new PieceMoveGenerator();
+    private final int player;
+    private final int[] moves = new int[600];
+    /* Moves generated for every piece, restored before each validation */
+    private final int[][] generated = new int[40][];
+
+    private MoveGenSuite(String sfen){
+        board = CurrentBoard.fromSfen(sfen);
+        piece = board.piece;
+        player = board.getCurPlayer();
+        pieceGenerator.updateKing(board.position, Position.sideOf(player));
+        for(int i = 0; i < 40; i++){
+            piece[i].validMoves.clear();
+            if(!isMoving(piece[i])) continue;
+            pieceGenerator.generateMoves(board.position, piece[i]);
+            generated[i] = new int[piece[i].validMoves.size()];
+            for(int j = 0; j < generated[i].length; j++)
+                generated[i][j] = piece[i].validMoves.get(j);
+        }
+    }
+
+    private boolean isMoving(Piece p){
+        return !p.isInTray() && p.getPlayer() == player;
+    }
+
+    private long generate(){
+        long count = 0;
+        for(int i = 0; i < 40; i++)
+            if(isMoving(piece[i])){
+                piece[i].validMoves.clear();
+                pieceGenerator.generateMoves(board.position, piece[i]);
+                count += piece[i].validMoves.size();
+            }
+        return count;
+    }
+
+    /* Restoring the generated moves is included in the measured time */
+    private long validate(){
+        long count = 0;
+        for(int i = 0; i < 40; i++)
+            if(isMoving(piece[i])){
+                piece[i].validMoves.clear();
+                for(int move : generated[i])
+                    piece[i].validMoves.add(move);
+                pieceGenerator.validateMoves(board.position, piece[i]);
+                count += piece[i].validMoves.size();
+            }
+        return count;
+    }
+
+    private long drops(){
+        return moveGenerator.generateDrops(board.position, moves);
+    }
+
+    /* Regeneration as performed by CurrentBoard after every move */
+    private long regenerate(){
+        long count = 0;
+        board.generateValidMoves();
+        for(int i = 0; i < 40; i++)
+            count += board.getValidMoves(i).size();
+        return count;
+    }
+
+    private long legalMoves(){
+        return moveGenerator.generateLegalMoves(board.position, moves);
+    }
+
+    /**
+     * Runs the suite.
+     * @param args optional iteration time in milliseconds (default 1000) and a filter of benchmark names.
+     */
+    public static void main(String[] args){
+        Harness harness = new Harness(3, 5, args.length > 0 ? Long.parseLong(args[0]) : 1000);
+        String filter = args.length > 1 ? args[1] : "";
+        Harness.printHeader();
+        for(String[] position : CORPUS){
+            MoveGenSuite s = new MoveGenSuite(position[1]);
+            String[] names = {"generateMoves", "validateMoves", "generateDrops", "regenerate", "legalMoves"};
+            Harness.Operation[] ops = {s::generate, s::validate, s::drops, s::regenerate, s::legalMoves};
+            for(int i = 0; i < ops.length; i++){
+                String name = names[i] + ":" + position[0];
+                if(name.contains(filter)) harness.run(name, ops[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/**
+ * Shogi - a simple online multiplayer game of Japanese chess.
+ * Copyright (C) 2018 Tomasz Ciborski
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package pl.umk.mat.tomaszcib.Benchmark;
+
+import pl.umk.mat.tomaszcib.GameLogic.CurrentBoard;
+import pl.umk.mat.tomaszcib.GameLogic.Move;
+import pl.umk.mat.tomaszcib.GameLogic.MoveGenerator;
+import pl.umk.mat.tomaszcib.GameLogic.Position;
+
+import java.util.Arrays;
+
+/**
+ * Perft (performance test) of the move generator: counts leaf nodes of the game tree up to a given depth,
+ * using {@link CurrentBoard#generateLegalMoves(int[])}, {@link CurrentBoard#makeMove(int)}
+ * and {@link CurrentBoard#unmakeMove(long)}. Node counts are compared with the published values,
+ * so the tool serves both as a correctness check and a throughput measure of the generator.
+ * The specialised generators are checked against the full one in every node of the tree:
+ * {@link MoveGenerator#generateChecks(Position, int[])} must give the legal moves leaving the enemy king in check
+ * and {@link MoveGenerator#generateEvasions(Position, int[])} all the legal moves of a side in check.<br><br>
+ * Usage:
+ * <ul>
+ *     <li><b>Perft</b> - runs the whole suite of known positions, exits with status 1 on any mismatch.</li>
+ *     <li><b>Perft depth [sfen]</b> - prints the node count of each root move (divide) and the total.</li>
+ *     <li><b>Perft verify</b> - compares the check and evasion generators with the full one in the trees
+ *     of the suite, one ply short of the deepest known count, exits with status 1 on any difference.</li>
+ * </ul>
+ */
+public class Perft {
+
+    /**
+     * Positions of the suite in SFEN notation: start, a middle game and a position with the most legal moves.
+     */
+    static final String[] POSITIONS = {
+            Position.START_SFEN,
+            "l6nl/5+P1gk/2np1S3/p1p4Pp/3P2Sp1/1PPb2P1P/P5GS1/R8/LN4bKL w RGgsn5p 1",
+            "R8/2K1S1SSk/4B4/9/9/9/9/9/1L1L1L3 b RBGSNLP3g3n17p 1"
+    };
+    /**
+     * Known node counts of the suite positions, indexed by [position][depth - 1].
+     */
+    static final long[][] EXPECTED = {
+            {30, 900, 25470, 719731, 19861490},
+            {207, 28684, 4809015},
+            {593}
+    };
+
+    private final CurrentBoard board;
+    private final int[][] moves;
+
+    /**
+     * Prepares perft of a position.
+     * @param sfen position in SFEN notation.
+     * @param depth maximal depth to be searched.
+     */
+    Perft(String sfen, int depth){
+        board = CurrentBoard.fromSfen(sfen);
+        moves = new int[Math.max(depth, 1)][600];
+    }
+
+    /**
+     * Counts leaf nodes of the game tree. Moves at the last ply are only counted, not made.
+     * @param depth remaining depth.
+     * @return number of leaf nodes.
+     */
+    long perft(int depth){
+        int[] list = moves[depth - 1];
+        int n = board.generateLegalMoves(list);
+        long nodes = 0;
+        if(depth == 1) return n;
+        for(int i = 0; i < n; i++){
+            long undo = board.makeMove(list[i]);
+            nodes += perft(depth - 1);
+            board.unmakeMove(undo);
+        }
+        return nodes;
+    }
+
+    /**
+     * Prints node counts of every root move.
+     * @param depth searched depth, at least 1.
+     * @return total number of leaf nodes.
+     */
+    long divide(int depth){
+        int[] list = new int[600];
+        int n = board.generateLegalMoves(list);
+        long nodes = 0;
+        for(int i = 0; i < n; i++){
+            long undo = board.makeMove(list[i]);
+            long count = depth > 1 ? perft(depth - 1) : 1;
+            board.unmakeMove(undo);
+            System.out.printf("%-7s %d%n", Move.toString(list[i]), count);
+            nodes += count;
+        }
+        return nodes;
+    }
+
+    /**
+     * Compares the check and evasion generators with the full generator in every node of the tree,
+     * printing the positions where they differ.
+     * @param pos position, restored on return.
+     * @param generator generator under test.
+     * @param depth remaining depth; the nodes at depth 0 are compared but not expanded.
+     * @param stats counters of the compared nodes, the nodes in check and the differences, updated.
+     */
+    static void verify(Position pos, MoveGenerator generator, int depth, long[] stats){
+        int[] all = new int[600], subset = new int[600], expected = new int[600];
+        int n = generator.generateLegalMoves(pos, all), count = 0;
+        for(int i = 0; i < n; i++){
+            long undo = pos.makeMove(all[i]);
+            if(pos.inCheck()) expected[count++] = all[i];
+            pos.unmakeMove(undo);
+        }
+        stats[0]++;
+        if(!sameMoves(expected, count, subset, generator.generateChecks(pos, subset))){
+            System.out.println("checks differ: " + pos.toSfen());
+            stats[2]++;
+        }
+        if(pos.inCheck()){
+            stats[1]++;
+            if(!sameMoves(all, n, subset, generator.generateEvasions(pos, subset))){
+                System.out.println("evasions differ: " + pos.toSfen());
+                stats[2]++;
+            }
+        }
+        if(depth == 0) return;
+        for(int i = 0; i < n; i++){
+            long undo = pos.makeMove(all[i]);
+            verify(pos, generator, depth - 1, stats);
+            pos.unmakeMove(undo);
+        }
+    }
+
+    /* Compares two lists of moves as sets; the second one is sorted in place */
+    private static boolean sameMoves(int[] a, int n, int[] b, int m){
+        int[] sorted = Arrays.copyOf(a, n);
+        Arrays.sort(sorted);
+        Arrays.sort(b, 0, m);
+        return Arrays.equals(sorted, Arrays.copyOf(b, m));
+    }
+
+    /**
+     * Runs perft.
+     * @param args none for the suite of known positions, or depth and optionally a position in SFEN notation.
+     */
+    public static void main(String[] args){
+        if(args.length > 0 && args[0].equals("verify")){
+            MoveGenerator generator = new MoveGenerator();
+            long[] stats = new long[3];
+            long start = System.nanoTime();
+            for(int i = 0; i < POSITIONS.length; i++)
+                verify(new Position(POSITIONS[i]), generator, EXPECTED[i].length - 1, stats);
+            System.out.printf("%d nodes, %d in check, %d differences, time: %.3f s%n", stats[0], stats[1], stats[2],
+                    (System.nanoTime() - start) / 1e9);
+            if(stats[2] > 0) System.exit(1);
+            return;
+        }
+        if(args.length > 0){
+            int depth = Integer.parseInt(args[0]);
+            StringBuilder sfen = new StringBuilder();
+            for(int i = 1; i < args.length; i++)
+                sfen.append(args[i]).append(' ');
+            Perft p = new Perft(sfen.length() > 0 ? sfen.toString() : Position.START_SFEN, depth);
+            long start = System.nanoTime();
+            long nodes = p.divide(depth);
+            long time = System.nanoTime() - start;
+            System.out.printf("%nNodes: %d, time: %.3f s, %.0f nodes/s%n", nodes, time / 1e9, nodes * 1e9 / time);
+            return;
+        }
+        boolean ok = true;
+        System.out.printf("%-4s %-6s %12s %12s %10s %14s%n", "pos", "depth", "nodes", "expected", "time [s]",
+                "nodes/s");
+        for(int i = 0; i < POSITIONS.length; i++)
+            for(int depth = 1; depth <= EXPECTED[i].length; depth++){
+                Perft p = new Perft(POSITIONS[i], depth);
+                long start = System.nanoTime();
+                long nodes = p.perft(depth);
+                long time = System.nanoTime() - start;
+                ok &= nodes == EXPECTED[i][depth - 1];
+                System.out.printf("%-4d %-6d %12d %12d %10.3f %14.0f %s%n", i, depth, nodes, EXPECTED[i][depth - 1],
+                        time / 1e9, nodes * 1e9 / time, nodes == EXPECTED[i][depth - 1] ? "" : "MISMATCH");
+            }
+        if(!ok) System.exit(1);
+    }
+}
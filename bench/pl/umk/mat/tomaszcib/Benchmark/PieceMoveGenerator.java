@@ -0,0 +1,76 @@
+/**
+ * Shogi - a simple online multiplayer game of Japanese chess.
+ * Copyright (C) 2018 Tomasz Ciborski
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package pl.umk.mat.tomaszcib.Benchmark;
+
+import pl.umk.mat.tomaszcib.GameLogic.Bitboard;
+import pl.umk.mat.tomaszcib.GameLogic.CheckInfo;
+import pl.umk.mat.tomaszcib.GameLogic.King;
+import pl.umk.mat.tomaszcib.GameLogic.Move;
+import pl.umk.mat.tomaszcib.GameLogic.Piece;
+import pl.umk.mat.tomaszcib.GameLogic.Position;
+
+/**
+ * The piece-wise generation of the first bitboard generator, kept for the benchmarks: moves of a single piece
+ * are generated into its {@link Piece#validMoves} list and then sieved by the checks and pins of its king.
+ * The game generates all the moves of a position at once with
+ * {@link pl.umk.mat.tomaszcib.GameLogic.MoveGenerator#generateLegalMoves(Position, int[])} instead.
+ */
+class PieceMoveGenerator {
+
+    private final Bitboard targets = new Bitboard();
+    private final CheckInfo checks = new CheckInfo();
+
+    /**
+     * Computes the checks and pins of a side's king, used by the other methods.
+     * @param pos current position.
+     * @param side side of the king (0 or 1).
+     */
+    void updateKing(Position pos, int side){
+        checks.compute(pos, side);
+    }
+
+    /**
+     * Generates the moves of a piece on the board, leaving only the king out of the attacked fields.
+     * @param pos current position.
+     * @param p piece we generate moves for.
+     */
+    void generateMoves(Position pos, Piece p){
+        int side = Position.sideOf(p.getPlayer());
+        int a = p.getPos(), type = p.getType().getValue();
+        pos.attacks(pos.board[a], a, targets).andNot(pos.bySide[side]);
+        for(int i = targets.pop(); i != -1; i = targets.pop())
+            if(!(p instanceof King) || checks.kingMayEnter(pos, i))
+                p.validMoves.add(Move.of(a, i, type, false) | (pos.board[i] != Position.EMPTY ? Move.CAPTURE : 0));
+    }
+
+    /**
+     * Removes the moves of a piece which would uncover its king or not answer a check.
+     * @param pos current position.
+     * @param p piece for move validation.
+     */
+    void validateMoves(Position pos, Piece p){
+        int a = p.getPos();
+        int j = 0;
+        if(p instanceof King || (!checks.inCheck() && !checks.pinned.test(a))) return;
+        while(j < p.validMoves.size()){
+            if(checks.allows(a, Move.to(p.validMoves.get(j)))) j++;
+            else p.validMoves.remove(j);
+        }
+    }
+}
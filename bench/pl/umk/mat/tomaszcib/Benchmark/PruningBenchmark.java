@@ -0,0 +1,148 @@
+/**
+ * Shogi - a simple online multiplayer game of Japanese chess.
+ * Copyright (C) 2018 Tomasz Ciborski
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package pl.umk.mat.tomaszcib.Benchmark;
+
+import pl.umk.mat.tomaszcib.Engine.Search;
+import pl.umk.mat.tomaszcib.Engine.SearchOptions;
+import pl.umk.mat.tomaszcib.Engine.TranspositionTable;
+import pl.umk.mat.tomaszcib.GameLogic.Move;
+import pl.umk.mat.tomaszcib.GameLogic.Position;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compares the selective techniques of the {@link Search} (see {@link SearchOptions}) at a fixed depth.
+ * Every position of a test suite is searched with a fresh transposition table by a plain full-width search,
+ * by each technique alone and by all of them together. For each configuration the benchmark reports
+ * the total nodes and their reduction against the full-width search, the number of positions where one of
+ * the recorded moves was played and the number of positions where the move agrees with the full-width search
+ * at the same depth. The recorded moves of the default suite come from this engine, so both columns measure
+ * agreement with an unpruned search, not tactical strength.<br><br>
+ * Usage: <b>PruningBenchmark [depth] [suite file]</b>. A suite file holds lines {@code sfen | moves},
+ * where moves are the recorded moves in the notation of {@link Move#toString(int)}, separated by spaces,
+ * and may be left out; lines starting with # are skipped. The default suite is {@link #SUITE}.
+ */
+public class PruningBenchmark {
+
+    /**
+     * The default suite: tactical positions with the moves played by the full-width search of this engine
+     * at depths 4 and 6, followed by the positions of the other benchmarks with no recorded move.
+     */
+    static final String[] SUITE = {
+            "4k4/9/4P4/9/9/9/9/9/4K4 b G 1 | G*5b",
+            "4k4/9/9/9/4r4/9/4R4/9/4K4 b - 1 | 5g5e",
+            "k7r/9/9/9/9/9/9/9/4K4 b B 1 | B*5e",
+            "4k4/9/2g6/9/9/9/6B2/9/4K4 b - 1 | 3g7c+ 3g7c",
+            "lns2gsnl/1rgk5/1pp2pb2/p2p1PPpp/4p4/PP2P4/2PP3PP/1B1SRS1GL/LN1GK2N1 b P 1 | 3d3c+",
+            "lns1k2nl/2rg1sg2/pppppp1pp/9/P5p2/9/B+bGPPPPPP/4R1K2/LNSG2SNL b 2p 1 | 7g8g",
+            "lns1g1sn1/2g1rk3/pppppp2l/6pp1/1b6P/2P1PPP2/PPbP3PN/2SRKL2L/1N1G1GS2 w P 1 | 7g6h+",
+            "1n2k1sn1/lsr1gg1bl/ppppp2p1/9/6+BPp/2P2p2P/PPGPPPP2/2K1R3L/LNS2GSN1 w P 1 | 4f4g+",
+            "l4g3/rs2k2sl/1pgpppnp1/P2+B4p/p5p2/2pP2PP1/1PN1PPG1P/L1RG2KSL/B+nS4N1 w p 1 | 7c6d",
+            "1n1k2snl/1rg1g2b1/lp1psp2p/p1p1p1p2/7p1/1PPB2P1P/P2PPP1P1/L2GK1R1L/1NS2GSN1 w - 1 | 2b6f",
+            "2s1gkpnl/lr1g2s2/ppn1pp1p1/2p5+B/3p1P3/1PP4Pp/P2PP1P1S/1R3KsG1/LN+b2G1NL w P 1 | 7i8h",
+            "ln1k1g1nl/1rs1gs1b1/pppp1ppp+B/4p4/9/1PP1P1P2/P2P1P1PP/2S2R3/LN1GKGSNL w P 1 | 2b1c",
+            "1nsg3nl/l2rkgs2/pppppp1pp/6p2/3P4P/2P6/PPB1PPPPN/3K2GRL/LNSG2S2 b B 1 | 7g1a+",
+            "1n2g1snl/l1r1g4/psp1kp2p/3pp1pp1/1p6P/P1P3P2/B2PPP1PN/L+b2RG2L/1NSGKS3 w p 1 | 8h8i",
+            "1n1gk1rn1/ls3snb1/pp1gp1pp1/2pp5/1P3pPP1/P8/2PPPP2+l/L1S1RGS1P/BN1GK3L w p 1 | 1g2h",
+            Position.START_SFEN,
+            "lnsgk2nl/1r4gs1/p1pppp1pp/1p4p2/7P1/2P6/PP1PPPP1P/1SG4R1/LN2KGSNL b Bb 1",
+            "l6nl/5+P1gk/2np1S3/p1p4Pp/3P2Sp1/1PPb2P1P/P5GS1/R8/LN4bKL w RGgsn5p 1",
+            "lnsgkgsnl/7b1/pppp1pppp/9/4r4/9/PPPP1PPPP/1B5R1/LNSGKGSNL b Pp 1"
+    };
+
+    private final String[] sfens;
+    private final String[][] recorded;
+    private final TranspositionTable table = new TranspositionTable(TranspositionTable.DEFAULT_SIZE_MB);
+    /* Moves of the full-width search, the reference of the agreement */
+    private int[] reference;
+
+    private PruningBenchmark(List<String> suite){
+        sfens = new String[suite.size()];
+        recorded = new String[suite.size()][];
+        for(int i = 0; i < sfens.length; i++){
+            String[] parts = suite.get(i).split("\\|");
+            sfens[i] = parts[0].trim();
+            recorded[i] = parts.length > 1 ? parts[1].trim().split("\\s+") : new String[0];
+        }
+    }
+
+    /* Searches the whole suite with the current options, printing a row of the report */
+    private long run(String name, int depth, long baseline){
+        long nodes = 0, start = System.nanoTime();
+        int matched = 0, expected = 0, agreed = 0;
+        int[] moves = new int[sfens.length];
+        for(int i = 0; i < sfens.length; i++){
+            table.clear();
+            table.newSearch();
+            Search search = new Search(table);
+            moves[i] = search.think(new Position(sfens[i]), Long.MAX_VALUE, depth);
+            nodes += search.getNodes();
+            if(recorded[i].length > 0){
+                expected++;
+                if(Arrays.asList(recorded[i]).contains(Move.toString(moves[i]))) matched++;
+            }
+        }
+        if(reference == null) reference = moves;
+        for(int i = 0; i < sfens.length; i++)
+            if(moves[i] == reference[i]) agreed++;
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%-14s %12d %9.1f%% %8.2f %6d/%-3d %6d/%-3d%n", name, nodes,
+                baseline == 0 ? 0.0 : 100.0 * (baseline - nodes) / baseline, seconds, matched, expected,
+                agreed, sfens.length);
+        return nodes;
+    }
+
+    /**
+     * Runs the benchmark.
+     * @param args optional depth (default 5) and path of a suite file (default: {@link #SUITE}).
+     * @throws IOException if the suite file can not be read.
+     */
+    public static void main(String[] args) throws IOException {
+        int depth = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        List<String> suite = new ArrayList<>();
+        if(args.length > 1){
+            try(BufferedReader in = new BufferedReader(new FileReader(args[1]))){
+                for(String line = in.readLine(); line != null; line = in.readLine())
+                    if(!line.trim().isEmpty() && !line.startsWith("#")) suite.add(line);
+            }
+        }
+        else suite.addAll(Arrays.asList(SUITE));
+        PruningBenchmark benchmark = new PruningBenchmark(suite);
+
+        System.out.printf("depth %d, %d positions%n%n", depth, suite.size());
+        System.out.printf("%-14s %12s %10s %8s %10s %10s%n", "options", "nodes", "reduction", "time [s]",
+                "recorded", "agreed");
+        SearchOptions.setAll(false);
+        long baseline = benchmark.run("full width", depth, 0);
+        for(String name : SearchOptions.NAMES){
+            /* Verification only matters together with the null move */
+            SearchOptions.setAll(false);
+            SearchOptions.set(name, true);
+            if(name.equals("verification")) SearchOptions.nullMove = true;
+            benchmark.run(name.equals("verification") ? "nullmove+ver" : name, depth, baseline);
+        }
+        SearchOptions.setAll(true);
+        benchmark.run("all", depth, baseline);
+    }
+}
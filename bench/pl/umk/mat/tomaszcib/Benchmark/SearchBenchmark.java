@@ -0,0 +1,95 @@
+/**
+ * Shogi - a simple online multiplayer game of Japanese chess.
+ * Copyright (C) 2018 Tomasz Ciborski
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package pl.umk.mat.tomaszcib.Benchmark;
+
+import pl.umk.mat.tomaszcib.Engine.Evaluation;
+import pl.umk.mat.tomaszcib.Engine.ParallelSearch;
+import pl.umk.mat.tomaszcib.Engine.Search;
+import pl.umk.mat.tomaszcib.Engine.TranspositionTable;
+import pl.umk.mat.tomaszcib.GameLogic.Move;
+import pl.umk.mat.tomaszcib.GameLogic.Position;
+import pl.umk.mat.tomaszcib.GameLogic.RepetitionTable;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Reports scaling of the {@link ParallelSearch} with the number of threads. Every position of
+ * {@link MoveGenBenchmark#POSITIONS} is searched for a fixed time with 1, 2, 4... threads up to the given maximum,
+ * each time with a cleared transposition table, and the total nodes per second are compared with a single thread.
+ * Before that, a fixed-depth search is run twice on a single thread, to check it is reproducible.
+ * Run with optional time per position in milliseconds, maximal number of threads, table size in megabytes
+ * and a file of evaluation weights (see {@link Evaluation#load(File)}).
+ */
+public class SearchBenchmark {
+
+    /* Searches a position with a fresh table and returns visited nodes, depth and the move */
+    private static long[] search(ParallelSearch search, String sfen, long millis, int depth){
+        search.getTable().clear();
+        search.getTable().newSearch();
+        search.setHistory(new RepetitionTable());
+        int move = search.think(new Position(sfen), millis, depth);
+        return new long[]{search.getNodes(), search.getDepth(), move};
+    }
+
+    /**
+     * Runs the benchmark.
+     * @param args optional time per position in milliseconds (default 2000), maximal number of threads
+     *             (default: number of processors), size of the transposition table in megabytes (default 64)
+     *             and path of an evaluation weights file (default: built-in weights).
+     * @throws IOException if the weights file can not be read.
+     */
+    public static void main(String[] args) throws IOException {
+        long millis = args.length > 0 ? Long.parseLong(args[0]) : 2000;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int megabytes = args.length > 2 ? Integer.parseInt(args[2]) : TranspositionTable.DEFAULT_SIZE_MB;
+        if(args.length > 3) Evaluation.load(new File(args[3]));
+        TranspositionTable table = new TranspositionTable(megabytes);
+
+        ParallelSearch single = new ParallelSearch(table, 1);
+        for(String sfen : MoveGenBenchmark.POSITIONS){
+            long[] first = search(single, sfen, Long.MAX_VALUE, 5);
+            long[] second = search(single, sfen, Long.MAX_VALUE, 5);
+            System.out.printf("depth 5: %-6s nodes %10d %10d %s%n", Move.toString((int)first[2]), first[0], second[0],
+                    first[0] == second[0] && first[2] == second[2] ? "reproducible" : "DIFFERENT");
+        }
+        single.shutdown();
+
+        System.out.printf("%n%-8s %12s %12s %8s %8s %8s%n", "threads", "nodes", "nodes/s", "speedup", "per thr",
+                "depth");
+        double baseline = 0;
+        for(int threads = 1; threads <= maxThreads; threads = threads * 2 > maxThreads && threads < maxThreads
+                ? maxThreads : threads * 2){
+            ParallelSearch search = new ParallelSearch(table, threads);
+            long nodes = 0, depth = 0, time = 0;
+            for(String sfen : MoveGenBenchmark.POSITIONS){
+                long start = System.nanoTime();
+                long[] result = search(search, sfen, millis, Search.MAX_PLY);
+                time += System.nanoTime() - start;
+                nodes += result[0];
+                depth += result[1];
+            }
+            search.shutdown();
+            double nps = nodes * 1e9 / time;
+            if(threads == 1) baseline = nps;
+            System.out.printf("%-8d %12d %12.0f %7.2fx %7.2fx %8.1f%n", threads, nodes, nps, nps / baseline,
+                    nps / baseline / threads, (double)depth / MoveGenBenchmark.POSITIONS.length);
+        }
+    }
+}
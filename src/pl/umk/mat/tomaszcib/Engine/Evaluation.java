@@ -0,0 +1,160 @@
+/**
+ * Shogi - a simple online multiplayer game of Japanese chess.
+ * Copyright (C) 2018 Tomasz Ciborski
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package pl.umk.mat.tomaszcib.Engine;
+
+import pl.umk.mat.tomaszcib.GameLogic.Attacks;
+import pl.umk.mat.tomaszcib.GameLogic.PieceSquare;
+import pl.umk.mat.tomaszcib.GameLogic.PieceType;
+import pl.umk.mat.tomaszcib.GameLogic.Position;
+
+import java.io.*;
+
+/**
+ * Static evaluation of a position used by the {@link Search}.<br><br>
+ * The evaluation consists of the material and piece-square score, kept up to date by the position itself
+ * with every move (see {@link Position#getScore()} and {@link PieceSquare}), and the safety of both kings,
+ * computed from the attack counts of the fields next to the kings. Both parts take constant time,
+ * so evaluating a position never looks at the whole board.<br><br>
+ * All the weights may be saved to and loaded from a binary file, which allows tuning them outside of the program.
+ * The file holds big-endian ints: the {@link #MAGIC} number, the {@link #VERSION}, the 16 piece values,
+ * the 8 hand values, the 16 x 81 piece-square bonuses and the 4 king safety weights.
+ */
+public final class Evaluation {
+    /**
+     * First int of a weights file.
+     */
+    public static final int MAGIC = 0x53455657;
+    /**
+     * Version of the weights file format.
+     */
+    public static final int VERSION = 1;
+    /**
+     * Penalty for every field next to the king attacked by the enemy.
+     */
+    public static int kingAttackedField = 12;
+    /**
+     * Additional penalty for every field next to the king attacked by more enemy pieces than own ones.
+     */
+    public static int kingWeakField = 20;
+    /**
+     * Penalty for every attacked field next to the king and every enemy piece in hand other than a pawn,
+     * since those pieces may be dropped next to the king.
+     */
+    public static int kingHandPressure = 4;
+    /**
+     * Bonus for every own gold or silver general next to the king.
+     */
+    public static int kingShelter = 15;
+
+    /* Fields next to the king on each field, for both sides */
+    private static final int[][] KING_FIELDS = new int[81][];
+
+    static {
+        for(int sq = 0; sq < 81; sq++){
+            int n = 0;
+            int[] fields = new int[8];
+            for(int i = 0; i < 81; i++)
+                if(Attacks.KING[0][sq].test(i)) fields[n++] = i;
+            KING_FIELDS[sq] = java.util.Arrays.copyOf(fields, n);
+        }
+    }
+
+    private Evaluation(){}
+
+    /**
+     * Evaluates a position.
+     * @param pos evaluated position.
+     * @return score in centipawns, positive if the side to move is better.
+     */
+    public static int evaluate(Position pos){
+        int score = pos.getScore() + kingSafety(pos, 0) - kingSafety(pos, 1);
+        return pos.getSideToMove() == 0 ? score : -score;
+    }
+
+    /* Safety of a side's king: shelter of the generals minus the danger of the enemy attacks next to it */
+    private static int kingSafety(Position pos, int side){
+        int k = pos.kingSq[side], enemy = 1 - side;
+        if(k == -1) return 0;
+        int attacked = 0, weak = 0, shelter = 0, handPieces = 0;
+        for(int sq : KING_FIELDS[k]){
+            int enemyAttacks = pos.attackCount[enemy][sq];
+            if(enemyAttacks > 0){
+                attacked++;
+                if(enemyAttacks > pos.attackCount[side][sq]) weak++;
+            }
+            int code = pos.board[sq];
+            if(code != Position.EMPTY && code >> Position.SIDE_SHIFT == side
+                    && ((code & 15) == PieceType.GOLDEN_GENERAL.getValue()
+                    || (code & 15) == PieceType.SILVER_GENERAL.getValue()))
+                shelter++;
+        }
+        for(int type = 1; type < 7; type++)
+            handPieces += pos.hand[enemy][type];
+        return shelter * kingShelter - attacked * kingAttackedField - weak * kingWeakField
+                - attacked * handPieces * kingHandPressure;
+    }
+
+    /**
+     * Loads all the weights from a file and rebuilds the tables of {@link PieceSquare}.
+     * Must not be called while a search is running.
+     * @param file weights file.
+     * @throws IOException if the file can not be read or has a wrong format.
+     */
+    public static void load(File file) throws IOException {
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))){
+            if(in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException("Not a weights file: " + file);
+            for(int i = 0; i < 16; i++)
+                PieceSquare.VALUE[i] = in.readInt();
+            for(int i = 0; i < 8; i++)
+                PieceSquare.HAND_VALUE[i] = in.readInt();
+            for(int i = 0; i < 16; i++)
+                for(int sq = 0; sq < 81; sq++)
+                    PieceSquare.TABLE[i][sq] = in.readInt();
+            kingAttackedField = in.readInt();
+            kingWeakField = in.readInt();
+            kingHandPressure = in.readInt();
+            kingShelter = in.readInt();
+        }
+        PieceSquare.update();
+    }
+
+    /**
+     * Saves all the current weights to a file, in the format read by {@link #load(File)}.
+     * @param file weights file.
+     * @throws IOException if the file can not be written.
+     */
+    public static void save(File file) throws IOException {
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))){
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            for(int i = 0; i < 16; i++)
+                out.writeInt(PieceSquare.VALUE[i]);
+            for(int i = 0; i < 8; i++)
+                out.writeInt(PieceSquare.HAND_VALUE[i]);
+            for(int i = 0; i < 16; i++)
+                for(int sq = 0; sq < 81; sq++)
+                    out.writeInt(PieceSquare.TABLE[i][sq]);
+            out.writeInt(kingAttackedField);
+            out.writeInt(kingWeakField);
+            out.writeInt(kingHandPressure);
+            out.writeInt(kingShelter);
+        }
+    }
+}
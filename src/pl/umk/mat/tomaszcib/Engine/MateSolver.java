@@ -0,0 +1,297 @@
+/**
+ * Shogi - a simple online multiplayer game of Japanese chess.
+ * Copyright (C) 2018 Tomasz Ciborski
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package pl.umk.mat.tomaszcib.Engine;
+
+import pl.umk.mat.tomaszcib.GameLogic.CurrentBoard;
+import pl.umk.mat.tomaszcib.GameLogic.Move;
+import pl.umk.mat.tomaszcib.GameLogic.MoveGenerator;
+import pl.umk.mat.tomaszcib.GameLogic.Position;
+
+import java.util.Arrays;
+
+/**
+ * Tsume (mate) solver: finds out if the side to move can mate the opponent by checking on every move,
+ * however the opponent defends.<br><br>
+ * The solver runs a depth-first proof-number search (df-pn). The attacker (OR nodes) plays only checking moves
+ * and drops, the defender (AND nodes) only evasions, and a side with no such move loses the line: the attacker
+ * without a check fails to mate, the defender without an evasion is mated. Proof and disproof numbers estimate
+ * how many positions still have to be resolved to prove or disprove the mate; the search always expands
+ * the most proving child and returns to the parent as soon as the numbers of the node exceed the thresholds
+ * given by the parent, keeping them in a {@link ProofTable}. The numbers are kept from the point of view
+ * of the side to move: phi is the proof number of it winning and delta of it losing, so
+ * phi = min(delta of children) and delta = sum(phi of children) in every node.<br><br>
+ * Repeating a position of the current line ends the line without a mate, since a perpetual check is not
+ * allowed in shogi. The side to move may have no king (as the attacker of many problems); the defender must
+ * have one. The mate found is not always the shortest one. Buffers are kept in the instance,
+ * so a single instance must be confined to one thread, but it may be stopped from another one (see {@link #stop()}).
+ */
+public class MateSolver {
+    /**
+     * Result of a solve: the limits were reached before the mate was proven or disproven.
+     */
+    public static final int UNKNOWN = 0;
+    /**
+     * Result of a solve: the side to move mates.
+     */
+    public static final int PROVEN = 1;
+    /**
+     * Result of a solve: the side to move has no mate.
+     */
+    public static final int DISPROVEN = 2;
+    /**
+     * Default maximal length of the searched lines, in plies.
+     */
+    public static final int DEFAULT_MAX_PLY = 256;
+
+    /* Proof numbers of unresolved positions stay below; the sums saturate */
+    private static final int INFINITE = 100000000;
+
+    private final ProofTable table;
+    private final MoveGenerator moveGenerator = new MoveGenerator();
+    private final Position pos = new Position();
+    private final int maxPly;
+    /* Moves of the nodes of the current line, keys of the positions they lead to and keys of the nodes */
+    private final int[][] moves;
+    private final long[][] childKeys;
+    private final long[] path;
+    private int[] pv = new int[0];
+    /* Stopped by a request or by the limits; a request alone is cleared by prepare() only */
+    private volatile boolean stopped;
+    private volatile boolean stopRequested;
+    private long nodes, maxNodes, deadline;
+
+    /**
+     * Creates a solver with its own proof table of the default size.
+     */
+    public MateSolver(){
+        this(new ProofTable(ProofTable.DEFAULT_SIZE_MB), DEFAULT_MAX_PLY);
+    }
+
+    /**
+     * Creates a solver using a given proof table.
+     * @param table proof table, used by no other solver at the same time.
+     * @param maxPly maximal length of the searched lines; longer lines are treated as not mating.
+     */
+    public MateSolver(ProofTable table, int maxPly){
+        this.table = table;
+        this.maxPly = maxPly;
+        moves = new int[maxPly + 1][];
+        childKeys = new long[maxPly + 1][];
+        path = new long[maxPly + 1];
+    }
+
+    /**
+     * Returns the proof table of the solver.
+     * @return the table.
+     */
+    public ProofTable getTable(){
+        return table;
+    }
+
+    /**
+     * Clears a stop requested by {@link #stop()}, so that the next solve runs. To be called before deciding
+     * to solve, so that a stop requested in between is respected by the solve.
+     */
+    public void prepare(){
+        stopRequested = false;
+    }
+
+    /**
+     * Solves the position of a game, with the player to move as the attacker.
+     * @param board game; its position is copied and never changed.
+     * @param maxNodes limit of visited nodes, {@link Long#MAX_VALUE} for no limit.
+     * @param millis time limit in milliseconds, {@link Long#MAX_VALUE} for no limit.
+     * @return {@link #PROVEN}, {@link #DISPROVEN} or {@link #UNKNOWN}.
+     */
+    public int solve(CurrentBoard board, long maxNodes, long millis){
+        return solve(board.position, maxNodes, millis);
+    }
+
+    /**
+     * Solves a position, with the side to move as the attacker. Entries of the previous solves are kept in the table.
+     * A solve stopped since the last {@link #prepare()} returns {@link #UNKNOWN} at once.
+     * @param root position; it is copied and never changed.
+     * @param maxNodes limit of visited nodes, {@link Long#MAX_VALUE} for no limit.
+     * @param millis time limit in milliseconds, {@link Long#MAX_VALUE} for no limit.
+     * @return {@link #PROVEN}, {@link #DISPROVEN} or {@link #UNKNOWN}.
+     */
+    public int solve(Position root, long maxNodes, long millis){
+        pos.copyFrom(root);
+        stopped = false;
+        if(stopRequested) stopped = true;
+        nodes = 0;
+        this.maxNodes = maxNodes;
+        long start = System.currentTimeMillis();
+        deadline = millis > Long.MAX_VALUE - start ? Long.MAX_VALUE : start + millis;
+        pv = new int[0];
+        table.newSearch();
+        search(0, INFINITE, INFINITE, true);
+        int entry = table.probe(pos.getKey());
+        if(entry == -1 || stopped && table.phi(entry) != 0 && table.delta(entry) != 0) return UNKNOWN;
+        if(table.phi(entry) != 0) return DISPROVEN;
+        pv = extractPv();
+        return PROVEN;
+    }
+
+    /**
+     * Stops the solve running in another thread. The solve returns {@link #UNKNOWN} as soon as possible.
+     */
+    public void stop(){
+        stopRequested = true;
+        stopped = true;
+    }
+
+    /**
+     * Returns number of nodes visited by the last solve.
+     * @return number of nodes.
+     */
+    public long getNodes(){
+        return nodes;
+    }
+
+    /**
+     * Returns the mate found by the last solve: the attacker's checks and the defender's longest evasions.
+     * @return packed moves (see {@link Move}), empty if no mate was found.
+     */
+    public int[] getPv(){
+        return pv.clone();
+    }
+
+    /**
+     * Returns the length of the mate found by the last solve.
+     * @return number of plies of the mate, 0 if no mate was found.
+     */
+    public int getMateLength(){
+        return pv.length;
+    }
+
+    /* Generates the moves of a node, checks of the attacker or evasions of the defender,
+    with the keys of the positions they lead to */
+    private int generate(int ply, boolean attacker){
+        if(moves[ply] == null){
+            moves[ply] = new int[600];
+            childKeys[ply] = new long[600];
+        }
+        int[] m = moves[ply];
+        long[] keys = childKeys[ply];
+        int n = attacker ? moveGenerator.generateChecks(pos, m) : moveGenerator.generateEvasions(pos, m);
+        for(int i = 0; i < n; i++){
+            long undo = pos.makeMove(m[i]);
+            keys[i] = pos.getKey();
+            pos.unmakeMove(undo);
+        }
+        return n;
+    }
+
+    /* Multiple iterative deepening of a node: expands its most proving child until phi or delta of the node
+    reaches its threshold, then stores the numbers */
+    private void search(int ply, int thresholdPhi, int thresholdDelta, boolean attacker){
+        long key = pos.getKey(), start = nodes++;
+        if(nodes >= maxNodes || (nodes & 1023) == 0 && System.currentTimeMillis() >= deadline) stopped = true;
+        int n = generate(ply, attacker);
+        if(n == 0){
+            table.store(key, INFINITE, 0, 0, 1);
+            return;
+        }
+        int entry = table.probe(key);
+        long work = entry == -1 ? 0 : table.work(entry);
+        path[ply] = key;
+        int[] m = moves[ply];
+        long[] keys = childKeys[ply];
+        while(true){
+            /* Numbers of the node and of its most proving child, the child with the least delta */
+            int phi = INFINITE, delta = 0, best = -1, bestPhi = 0, secondDelta = INFINITE;
+            int winLength = Integer.MAX_VALUE, lossLength = 0;
+            for(int i = 0; i < n; i++){
+                long childKey = keys[i];
+                int childPhi = 1, childDelta = 1, childLength = 0;
+                if(isOnPath(childKey, ply) || ply + 1 >= maxPly){
+                    /* The line is lost for the attacker, whoever is to move */
+                    childPhi = attacker ? 0 : INFINITE;
+                    childDelta = attacker ? INFINITE : 0;
+                }
+                else{
+                    int child = table.probe(childKey);
+                    if(child != -1){
+                        childPhi = table.phi(child);
+                        childDelta = table.delta(child);
+                        childLength = table.length(child);
+                    }
+                }
+                delta = Math.min(INFINITE, delta + childPhi);
+                if(childDelta < phi){
+                    secondDelta = phi;
+                    phi = childDelta;
+                    best = i;
+                    bestPhi = childPhi;
+                }
+                else if(childDelta < secondDelta) secondDelta = childDelta;
+                /* A won node is as long as its shortest win, a lost one as its longest defence */
+                if(childDelta == 0) winLength = Math.min(winLength, childLength + 1);
+                if(childPhi == 0) lossLength = Math.max(lossLength, childLength + 1);
+            }
+            if(phi >= thresholdPhi || delta >= thresholdDelta || stopped){
+                table.store(key, phi, delta, phi == 0 ? winLength : delta == 0 ? lossLength : 0, work + nodes - start);
+                return;
+            }
+            long undo = pos.makeMove(m[best]);
+            search(ply + 1, thresholdDelta - delta + bestPhi, Math.min(thresholdPhi, secondDelta + 1), !attacker);
+            pos.unmakeMove(undo);
+        }
+    }
+
+    /* Checks if a position occurred on the current line, with the same side to move */
+    private boolean isOnPath(long key, int ply){
+        for(int i = ply - 1; i >= 0; i -= 2)
+            if(path[i] == key) return true;
+        return false;
+    }
+
+    /* Follows the proof from the root: the shortest mating check of the attacker and the longest evasion
+    of the defender, as stored in the table */
+    private int[] extractPv(){
+        int[] line = new int[maxPly];
+        long[] undo = new long[maxPly];
+        int length = 0;
+        boolean attacker = true;
+        while(length < maxPly){
+            path[length] = pos.getKey();
+            int n = generate(length, attacker), move = Move.NONE, bestLength = 0;
+            for(int i = 0; i < n; i++){
+                long childKey = childKeys[length][i];
+                int child = isOnPath(childKey, length) ? -1 : table.probe(childKey);
+                if(child == -1) continue;
+                int childLength = table.length(child);
+                if(attacker ? table.delta(child) == 0 && (move == Move.NONE || childLength < bestLength)
+                        : table.phi(child) == 0 && (move == Move.NONE || childLength > bestLength)){
+                    move = moves[length][i];
+                    bestLength = childLength;
+                }
+            }
+            /* The defender is mated, or the rest of the proof has been overwritten in the table */
+            if(move == Move.NONE) break;
+            line[length] = move;
+            undo[length++] = pos.makeMove(move);
+            attacker = !attacker;
+        }
+        for(int i = length - 1; i >= 0; i--)
+            pos.unmakeMove(undo[i]);
+        return Arrays.copyOf(line, length);
+    }
+}
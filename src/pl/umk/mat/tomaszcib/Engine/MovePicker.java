@@ -0,0 +1,269 @@
+/**
+ * Shogi - a simple online multiplayer game of Japanese chess.
+ * Copyright (C) 2018 Tomasz Ciborski
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package pl.umk.mat.tomaszcib.Engine;
+
+import pl.umk.mat.tomaszcib.GameLogic.Move;
+import pl.umk.mat.tomaszcib.GameLogic.MoveGenerator;
+import pl.umk.mat.tomaszcib.GameLogic.PieceSquare;
+import pl.umk.mat.tomaszcib.GameLogic.Position;
+
+/**
+ * Staged move picker of one node of the {@link Search}. Moves are returned one by one by {@link #next()},
+ * in the order most likely to cause a cutoff early, and each group is generated only when the previous ones
+ * have been used up:
+ * <ol>
+ *     <li>the move stored in the transposition table,</li>
+ *     <li>captures and promotions not losing material in the static exchange, by the most valuable victim
+ *     and the least valuable attacker,</li>
+ *     <li>two killer moves (quiet moves which caused a cutoff at the same ply) and the countermove
+ *     (quiet move which refuted the previous move last time),</li>
+ *     <li>quiet moves on the board, by the history table of piece types and target fields,</li>
+ *     <li>drops, by their own history table of piece types and target fields,</li>
+ *     <li>captures losing material.</li>
+ * </ol>
+ * Moves of the first and third stage do not come from the generator, so they are checked with
+ * {@link MoveGenerator#isLegal(Position, int)} and skipped later. In a quiescence search only the second stage
+ * is used; in check the quiescence search gets all the evasions in the second stage instead, captures first.
+ * The picker keeps the position it was given and must be used before any other move is made on it.
+ */
+public class MovePicker {
+    /**
+     * Stage: the move stored in the transposition table.
+     */
+    public static final int HASH = 0;
+    /**
+     * Stage: captures and promotions not losing material.
+     */
+    public static final int GOOD_CAPTURES = 1;
+    /**
+     * Stage: killer moves and the countermove.
+     */
+    public static final int KILLERS = 2;
+    /**
+     * Stage: quiet moves on the board.
+     */
+    public static final int QUIETS = 3;
+    /**
+     * Stage: drops.
+     */
+    public static final int DROPS = 4;
+    /**
+     * Stage: captures losing material.
+     */
+    public static final int BAD_CAPTURES = 5;
+    /**
+     * All the moves have been returned.
+     */
+    public static final int END = 6;
+
+    /* Raises evasions capturing or promoting above any history score */
+    private static final int CAPTURE_BONUS = 1 << 20;
+
+    private final MoveGenerator moveGenerator;
+    private final StaticExchange exchange;
+    private final int[][][] history;
+    private final int[][][] dropHistory;
+    private final int[] moves = new int[600];
+    private final int[] scores = new int[600];
+    private final int[] badCaptures = new int[600];
+    private Position pos;
+    private int stage, lastStage, count, index, badCount, badIndex, killerIndex;
+    private boolean quiescence, evasions, generated;
+    private final int[] special = new int[4];
+
+    /**
+     * Creates a picker.
+     * @param moveGenerator generator of the searching thread.
+     * @param exchange static exchange evaluator of the searching thread.
+     * @param history scores of quiet moves on the board, indexed by [side][piece code without the side bits][field].
+     * @param dropHistory scores of drops, indexed by [side][{@link pl.umk.mat.tomaszcib.GameLogic.PieceType} value]
+     *                    [field].
+     */
+    public MovePicker(MoveGenerator moveGenerator, StaticExchange exchange, int[][][] history, int[][][] dropHistory){
+        this.moveGenerator = moveGenerator;
+        this.exchange = exchange;
+        this.history = history;
+        this.dropHistory = dropHistory;
+    }
+
+    /**
+     * Prepares picking all the legal moves of a position.
+     * @param pos current position.
+     * @param hashMove move from the transposition table or {@link Move#NONE}.
+     * @param killer1 first killer move or {@link Move#NONE}.
+     * @param killer2 second killer move or {@link Move#NONE}.
+     * @param counterMove countermove or {@link Move#NONE}.
+     */
+    public void init(Position pos, int hashMove, int killer1, int killer2, int counterMove){
+        this.pos = pos;
+        quiescence = false;
+        evasions = false;
+        stage = HASH;
+        special[0] = hashMove;
+        special[1] = killer1 != hashMove ? killer1 : Move.NONE;
+        special[2] = killer2 != hashMove && killer2 != killer1 ? killer2 : Move.NONE;
+        special[3] = counterMove != hashMove && counterMove != killer1 && counterMove != killer2
+                ? counterMove : Move.NONE;
+        killerIndex = 1;
+        badCount = 0;
+        badIndex = 0;
+        generated = false;
+    }
+
+    /**
+     * Prepares picking the captures and promotions of a position which do not lose material.
+     * @param pos current position, not in check.
+     */
+    public void initQuiescence(Position pos){
+        init(pos, Move.NONE, Move.NONE, Move.NONE, Move.NONE);
+        quiescence = true;
+        stage = GOOD_CAPTURES;
+    }
+
+    /**
+     * Prepares picking all the evasions of a position in check, as the second stage: captures and promotions
+     * by the victim and the attacker, then the other moves by the history tables. No evasion is skipped
+     * by the static exchange, since the side to move may have no other one.
+     * @param pos current position, in check.
+     */
+    public void initEvasions(Position pos){
+        initQuiescence(pos);
+        evasions = true;
+    }
+
+    /**
+     * Returns the stage of the last returned move.
+     * @return one of the stage constants of the class.
+     */
+    public int getStage(){
+        return lastStage;
+    }
+
+    /**
+     * Returns the next move.
+     * @return packed move or {@link Move#NONE} if there are no more moves.
+     */
+    public int next(){
+        int move = nextMove();
+        lastStage = move == Move.NONE ? END : stage == GOOD_CAPTURES && !generated ? HASH : stage;
+        return move;
+    }
+
+    /* Finds the next move, advancing the stage if needed */
+    private int nextMove(){
+        while(true){
+            switch(stage){
+                case HASH:
+                    stage = GOOD_CAPTURES;
+                    if(moveGenerator.isLegal(pos, special[0])) return special[0];
+                    break;
+                case GOOD_CAPTURES:
+                    if(!generated){
+                        count = evasions ? moveGenerator.generateEvasions(pos, moves)
+                                : moveGenerator.generateCaptures(pos, moves);
+                        for(int i = 0; i < count; i++)
+                            scores[i] = evasions ? evasionScore(moves[i]) : captureScore(moves[i]);
+                        index = 0;
+                        generated = true;
+                    }
+                    while(index < count){
+                        int move = pick();
+                        if(move == special[0]) continue;
+                        if(!evasions && !exchange.isSafe(pos, move)){
+                            if(!quiescence) badCaptures[badCount++] = move;
+                            continue;
+                        }
+                        return move;
+                    }
+                    stage = quiescence ? END : KILLERS;
+                    break;
+                case KILLERS:
+                    while(killerIndex < 4){
+                        int move = special[killerIndex++];
+                        if(move != Move.NONE && !Move.isCapture(move) && !Move.isPromotion(move)
+                                && moveGenerator.isLegal(pos, move))
+                            return move;
+                    }
+                    stage = QUIETS;
+                    count = moveGenerator.generateQuiets(pos, moves);
+                    for(int i = 0; i < count; i++)
+                        scores[i] = history[pos.getSideToMove()][pos.board[Move.from(moves[i])] & 15]
+                                [Move.to(moves[i])];
+                    index = 0;
+                    break;
+                case QUIETS:
+                case DROPS:
+                    while(index < count){
+                        int move = pick();
+                        if(!isSpecial(move)) return move;
+                    }
+                    if(stage == QUIETS){
+                        stage = DROPS;
+                        count = moveGenerator.generateDrops(pos, moves);
+                        for(int i = 0; i < count; i++)
+                            scores[i] = dropHistory[pos.getSideToMove()][Move.type(moves[i])][Move.to(moves[i])];
+                        index = 0;
+                    }
+                    else stage = BAD_CAPTURES;
+                    break;
+                case BAD_CAPTURES:
+                    if(badIndex < badCount) return badCaptures[badIndex++];
+                    stage = END;
+                    break;
+                default:
+                    return Move.NONE;
+            }
+        }
+    }
+
+    /* Checks if a move has already been returned by the hash or killer stage */
+    private boolean isSpecial(int move){
+        return move == special[0] || move == special[1] || move == special[2] || move == special[3];
+    }
+
+    /* Most valuable victim first, least valuable attacker next; promotions count as winning the difference */
+    private int captureScore(int move){
+        int score = 0, code = pos.board[Move.from(move)] & 15;
+        if(Move.isCapture(move))
+            score = 16 * PieceSquare.VALUE[pos.board[Move.to(move)] & 15] - PieceSquare.VALUE[code] / 10;
+        if(Move.isPromotion(move)) score += PieceSquare.VALUE[code | Position.PROMOTED] - PieceSquare.VALUE[code];
+        return score;
+    }
+
+    /* Captures and promotions above the other moves, which are ordered by the history tables */
+    private int evasionScore(int move){
+        int side = pos.getSideToMove(), to = Move.to(move);
+        if(Move.isDrop(move)) return dropHistory[side][Move.type(move)][to];
+        if(Move.isCapture(move) || Move.isPromotion(move)) return CAPTURE_BONUS + captureScore(move);
+        return history[side][pos.board[Move.from(move)] & 15][to];
+    }
+
+    /* Selection sort step: moves the best scored of the remaining moves to the current index and returns it */
+    private int pick(){
+        int best = index;
+        for(int j = index + 1; j < count; j++)
+            if(scores[j] > scores[best]) best = j;
+        int move = moves[best], s = scores[best];
+        moves[best] = moves[index];
+        scores[best] = scores[index];
+        moves[index] = move;
+        scores[index++] = s;
+        return move;
+    }
+}
@@ -0,0 +1,178 @@
+/**
+ * Shogi - a simple online multiplayer game of Japanese chess.
+ * Copyright (C) 2018 Tomasz Ciborski
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package pl.umk.mat.tomaszcib.Engine;
+
+import pl.umk.mat.tomaszcib.GameLogic.Position;
+import pl.umk.mat.tomaszcib.GameLogic.RepetitionTable;
+
+import java.util.concurrent.*;
+
+/**
+ * Parallel search of a position on many threads (Lazy SMP).<br><br>
+ * Every thread runs its own {@link Search}, with its own copy of the position and its own move ordering state,
+ * and all of them share one {@link TranspositionTable}. The threads do not communicate otherwise: helpers fill
+ * the table with results the main search then finds. Every other helper starts one iteration deeper, so the threads
+ * do not all search the same nodes in the same order. The move of the main search is played; the helpers
+ * are stopped as soon as it finishes.<br><br>
+ * With a single thread no helper is started and the search is exactly the {@link Search} of the calling thread,
+ * so its results are reproducible for a fixed depth.
+ */
+public class ParallelSearch {
+    private final TranspositionTable table;
+    private final Search[] searches;
+    private final ExecutorService helpers;
+    private final Future<?>[] running;
+
+    /**
+     * Creates a parallel search.
+     * @param table transposition table shared by all the threads.
+     * @param threads number of searching threads, including the calling one.
+     */
+    public ParallelSearch(TranspositionTable table, int threads){
+        this.table = table;
+        searches = new Search[Math.max(threads, 1)];
+        for(int i = 0; i < searches.length; i++)
+            searches[i] = new Search(table);
+        running = new Future<?>[searches.length];
+        helpers = searches.length == 1 ? null : Executors.newFixedThreadPool(searches.length - 1,
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "search helper");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+    }
+
+    /**
+     * Returns number of searching threads.
+     * @return number of threads, including the calling one.
+     */
+    public int getThreads(){
+        return searches.length;
+    }
+
+    /**
+     * Returns the shared transposition table.
+     * @return transposition table.
+     */
+    public TranspositionTable getTable(){
+        return table;
+    }
+
+    /**
+     * Sets positions which occurred in the game up to the searched one (see {@link Search#setHistory(RepetitionTable)}).
+     * The table is shared by all the threads and must not be changed while a search is running.
+     * @param history positions of the game, the last one should be the searched position.
+     */
+    public void setHistory(RepetitionTable history){
+        for(Search s : searches)
+            s.setHistory(history);
+    }
+
+    /**
+     * Clears a stop requested by {@link #stop()}, so that the next search runs (see {@link Search#prepare()}).
+     */
+    public void prepare(){
+        for(Search s : searches)
+            s.prepare();
+    }
+
+    /**
+     * Searches a position on all the threads for a given time or until {@link #stop()} is called.
+     * The calling thread runs the main search. A search stopped since the last {@link #prepare()} returns at once.
+     * @param root searched position, it is copied and never changed.
+     * @param millis time limit in milliseconds.
+     * @param maxDepth maximal depth of the iterative deepening.
+     * @return best move of the main search or {@link pl.umk.mat.tomaszcib.GameLogic.Move#NONE}
+     * if the side to move has no legal move.
+     */
+    public int think(final Position root, final long millis, final int maxDepth){
+        /* Helpers were stopped by the end of the previous search; a requested stop stops the main search */
+        for(int i = 1; i < searches.length; i++)
+            searches[i].prepare();
+        for(int i = 1; i < searches.length; i++){
+            final Search helper = searches[i];
+            final int firstDepth = 1 + i % 2;
+            running[i] = helpers.submit(new Runnable() {
+                @Override
+                public void run() {
+                    helper.search(root, millis, maxDepth, firstDepth);
+                }
+            });
+        }
+        int move = searches[0].search(root, millis, maxDepth, 1);
+        for(int i = 1; i < searches.length; i++)
+            searches[i].stop();
+        for(int i = 1; i < searches.length; i++){
+            try {
+                running[i].get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                e.printStackTrace();
+            }
+        }
+        return move;
+    }
+
+    /**
+     * Stops all the threads of the search. The search returns as soon as possible.
+     */
+    public void stop(){
+        for(Search s : searches)
+            s.stop();
+    }
+
+    /**
+     * Stops the helper threads for good. The object can not be used any more.
+     */
+    public void shutdown(){
+        stop();
+        if(helpers != null) helpers.shutdownNow();
+    }
+
+    /**
+     * Returns number of nodes visited by all the threads in the last search.
+     * @return number of nodes.
+     */
+    public long getNodes(){
+        long nodes = 0;
+        for(Search s : searches)
+            nodes += s.getNodes();
+        return nodes;
+    }
+
+    /**
+     * Returns depth of the last completed iteration of the main search.
+     * @return depth in plies.
+     */
+    public int getDepth(){
+        return searches[0].getDepth();
+    }
+
+    /**
+     * Returns score of the best move found by the main search.
+     * @return score in centipawns from the point of view of the side to move in the root.
+     */
+    public int getScore(){
+        return searches[0].getScore();
+    }
+}
@@ -0,0 +1,231 @@
+/**
+ * Shogi - a simple online multiplayer game of Japanese chess.
+ * Copyright (C) 2018 Tomasz Ciborski
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package pl.umk.mat.tomaszcib.Engine;
+
+/**
+ * Proof and disproof numbers of the positions examined by a {@link MateSolver}, stored by their Zobrist keys.<br><br>
+ * The numbers are kept from the point of view of the side to move (see {@link MateSolver}): phi is the proof number
+ * of the side to move winning and delta the proof number of it losing. A position is resolved when one of them is 0.
+ * Every entry also holds the amount of work spent on the position (visited nodes below it), the length of the mate
+ * of a resolved position and the number of the solve which stored it.<br><br>
+ * The table is divided into buckets of four entries. When a bucket is full, the unresolved entry with the least
+ * work is replaced. When the whole table gets nearly full, it is garbage collected (see {@link #collect()}):
+ * unresolved entries left from the previous solves go first, then the unresolved ones with the least work,
+ * so that the costly parts of the proof survive. A table must be confined to one thread.
+ */
+public class ProofTable {
+    /**
+     * Default size of the table in megabytes.
+     */
+    public static final int DEFAULT_SIZE_MB = 16;
+
+    /* Bytes per entry: key, phi, delta, work, length and generation */
+    private static final int ENTRY_SIZE = 8 + 4 + 4 + 4 + 2 + 1;
+    /* The table is collected above this fill, down to the half of it */
+    private static final double COLLECT_FILL = 0.9;
+    private static final int GENERATION_MASK = 127;
+
+    private long[] keys;
+    private int[] phis;
+    private int[] deltas;
+    private int[] works;
+    private short[] lengths;
+    private byte[] generations;
+    private int mask;
+    private int used;
+    private int generation;
+    private long collections;
+
+    /**
+     * Allocates a table.
+     * @param megabytes size of the table in megabytes; the number of entries is rounded down to a power of two.
+     */
+    public ProofTable(int megabytes){
+        int entries = (int)Math.min(Long.highestOneBit(Math.max(megabytes, 1) * (1L << 20) / ENTRY_SIZE), 1 << 30);
+        keys = new long[entries];
+        phis = new int[entries];
+        deltas = new int[entries];
+        works = new int[entries];
+        lengths = new short[entries];
+        generations = new byte[entries];
+        mask = entries / 4 - 1;
+    }
+
+    /**
+     * Returns the number of entries the table can hold.
+     * @return capacity in entries.
+     */
+    public int capacity(){
+        return keys.length;
+    }
+
+    /**
+     * Returns the number of stored entries.
+     * @return number of entries.
+     */
+    public int used(){
+        return used;
+    }
+
+    /**
+     * Returns how many times the table has been garbage collected since it was allocated.
+     * @return number of collections.
+     */
+    public long getCollections(){
+        return collections;
+    }
+
+    /**
+     * Removes all the entries.
+     */
+    public void clear(){
+        java.util.Arrays.fill(keys, 0);
+        used = 0;
+    }
+
+    /**
+     * Starts a new solve. Unresolved entries of the previous solves become stale and are the first to be removed
+     * by the garbage collection; resolved ones stay valid.
+     */
+    public void newSearch(){
+        generation = (generation + 1) & GENERATION_MASK;
+    }
+
+    /**
+     * Looks a position up in the table.
+     * @param key Zobrist key of the position, not 0.
+     * @return index of the entry to be read with the other methods, or -1 if the position is not stored.
+     */
+    public int probe(long key){
+        int base = ((int)key & mask) * 4;
+        for(int i = base; i < base + 4; i++)
+            if(keys[i] == key) return i;
+        return -1;
+    }
+
+    /**
+     * Returns the proof number of the side to move winning.
+     * @param entry index returned by {@link #probe(long)}.
+     * @return phi.
+     */
+    public int phi(int entry){
+        return phis[entry];
+    }
+
+    /**
+     * Returns the proof number of the side to move losing.
+     * @param entry index returned by {@link #probe(long)}.
+     * @return delta.
+     */
+    public int delta(int entry){
+        return deltas[entry];
+    }
+
+    /**
+     * Returns the length of the mate of a resolved position.
+     * @param entry index returned by {@link #probe(long)}.
+     * @return number of plies until the mate, 0 if the side to move is mated already.
+     */
+    public int length(int entry){
+        return lengths[entry];
+    }
+
+    /**
+     * Returns the work spent on a position.
+     * @param entry index returned by {@link #probe(long)}.
+     * @return number of visited nodes below the position, saturated at {@link Integer#MAX_VALUE}.
+     */
+    public int work(int entry){
+        return works[entry];
+    }
+
+    /**
+     * Stores the numbers of a position, replacing its previous entry.
+     * @param key Zobrist key of the position, not 0.
+     * @param phi proof number of the side to move winning.
+     * @param delta proof number of the side to move losing.
+     * @param length length of the mate of a resolved position.
+     * @param work number of visited nodes below the position.
+     */
+    public void store(long key, int phi, int delta, int length, long work){
+        int base = ((int)key & mask) * 4, slot = -1;
+        for(int i = base; i < base + 4 && slot == -1; i++)
+            if(keys[i] == key) slot = i;
+        for(int i = base; i < base + 4 && slot == -1; i++)
+            if(keys[i] == 0){
+                slot = i;
+                used++;
+            }
+        if(slot == -1){
+            /* Resolved entries are only replaced if all the entries of the bucket are resolved */
+            for(int i = base; i < base + 4; i++)
+                if(slot == -1 || isResolved(slot) && !isResolved(i)
+                        || isResolved(slot) == isResolved(i) && works[i] < works[slot])
+                    slot = i;
+        }
+        keys[slot] = key;
+        phis[slot] = phi;
+        deltas[slot] = delta;
+        works[slot] = (int)Math.min(work, Integer.MAX_VALUE);
+        lengths[slot] = (short)Math.min(length, Short.MAX_VALUE);
+        generations[slot] = (byte)generation;
+        if(used > keys.length * COLLECT_FILL) collect();
+    }
+
+    /* Checks if the position of an entry is resolved */
+    private boolean isResolved(int entry){
+        return phis[entry] == 0 || deltas[entry] == 0;
+    }
+
+    /**
+     * Garbage collection: removes stale entries until at most half of the table is used. Unresolved entries
+     * of the previous solves are removed first, then unresolved entries with the least work and, only if that
+     * is not enough, resolved entries with the least work. Called automatically when the table gets nearly full.
+     */
+    public void collect(){
+        collections++;
+        int target = keys.length / 2;
+        for(int i = 0; i < keys.length; i++)
+            if(keys[i] != 0 && generations[i] != (byte)generation && !isResolved(i)) remove(i);
+        if(used > target) removeLeastWork(false, target);
+        if(used > target) removeLeastWork(true, target);
+    }
+
+    /* Removes entries of the least work, resolved or not, by classes of the binary logarithm of the work */
+    private void removeLeastWork(boolean resolved, int target){
+        int[] histogram = new int[33];
+        for(int i = 0; i < keys.length; i++)
+            if(keys[i] != 0 && isResolved(i) == resolved) histogram[log2(works[i])]++;
+        int limit = 0, removed = 0;
+        while(limit < 32 && used - removed - histogram[limit] > target)
+            removed += histogram[limit++];
+        /* The class at the limit is removed too, so that the collection frees enough */
+        for(int i = 0; i < keys.length; i++)
+            if(keys[i] != 0 && isResolved(i) == resolved && log2(works[i]) <= limit) remove(i);
+    }
+
+    private void remove(int entry){
+        keys[entry] = 0;
+        used--;
+    }
+
+    private static int log2(int work){
+        return 32 - Integer.numberOfLeadingZeros(work);
+    }
+}
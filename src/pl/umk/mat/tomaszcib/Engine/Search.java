@@ -0,0 +1,487 @@
+/**
+ * Shogi - a simple online multiplayer game of Japanese chess.
+ * Copyright (C) 2018 Tomasz Ciborski
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package pl.umk.mat.tomaszcib.Engine;
+
+import pl.umk.mat.tomaszcib.GameLogic.Move;
+import pl.umk.mat.tomaszcib.GameLogic.MoveGenerator;
+import pl.umk.mat.tomaszcib.GameLogic.PieceSquare;
+import pl.umk.mat.tomaszcib.GameLogic.Position;
+import pl.umk.mat.tomaszcib.GameLogic.RepetitionTable;
+
+import java.util.Arrays;
+
+/**
+ * Iterative deepening principal variation search (PVS) choosing a move of the computer player.<br><br>
+ * The search works on its own copy of a position, making and taking back moves with
+ * {@link Position#makeMove(int)} and {@link Position#unmakeMove(long)} and generating them with
+ * {@link MoveGenerator#generateLegalMoves(Position, int[])}, so it never touches the game shown on the board.
+ * The first move of every node is searched with the full window and the remaining ones with a null window,
+ * re-searched only if they turn out better. Results of searched nodes are kept in a {@link TranspositionTable},
+ * which cuts off positions reached again by another order of moves and supplies the best move of the previous
+ * search of a node. Moves are ordered by a {@link MovePicker}: the stored move (or the move of the principal variation
+ * of the previous iteration) first, then good captures, killer moves and the countermove, quiet moves and drops
+ * by their history scores, and bad captures last. The ordering state is cleared before every search, so at a fixed
+ * depth the result depends on the position and the transposition table only. Positions repeated in the game
+ * or the searched line are scored as a draw, unless one side has been giving check on every move since
+ * the first occurrence; as in the game, such a repetition is lost by that side.<br><br>
+ * The search is selective (each technique may be switched off in {@link SearchOptions}): a node which still
+ * fails high after passing the turn is cut off (null move pruning, verified at high depths), quiet moves
+ * ordered late are searched shallower first (late move reductions), nodes near the leaves with the static
+ * evaluation far from the window are cut off or left to the quiescence search (futility pruning and razoring),
+ * and a node in check is searched one ply deeper.<br><br>
+ * At the end of every line a quiescence search plays out captures and promotions until the position is quiet,
+ * so that the line is not evaluated in the middle of an exchange. Captures losing material
+ * in the static exchange (see {@link StaticExchange}) are not searched there; in check all the evasions are.<br><br>
+ * A search may be stopped at any time from another thread (see {@link #stop()}); the best move of the last
+ * completed iteration is returned then. A stop requested before the search starts is kept until {@link #prepare()},
+ * so it is never lost to a search started just after it. A single instance must be confined to one thread.
+ */
+public class Search {
+    /**
+     * Maximal depth of the searched lines.
+     */
+    public static final int MAX_PLY = 64;
+    /**
+     * Score of a checkmate at the root; a mate found n plies deeper is scored {@code MATE - n}.
+     */
+    public static final int MATE = 30000;
+    /**
+     * Bound exceeding all the scores.
+     */
+    public static final int INFINITE = 32000;
+    /**
+     * Score of a repetition won by the side to move, the opponent having given check on every move;
+     * it exceeds all the evaluations, but is not mistaken for a mate.
+     */
+    public static final int PERPETUAL_CHECK = MATE - 2 * MAX_PLY;
+    /* Limit of the history scores */
+    private static final int HISTORY_MAX = 16384;
+    /* Result of repetitionScore() for a position which has not occurred before */
+    private static final int NO_REPETITION = INFINITE;
+    /* Depth limits and margins (per ply of depth) of the selective techniques, see SearchOptions */
+    private static final int NULL_MOVE_DEPTH = 3;
+    private static final int VERIFICATION_DEPTH = 7;
+    private static final int FUTILITY_DEPTH = 3;
+    private static final int FUTILITY_MARGIN = 250;
+    private static final int RAZOR_DEPTH = 2;
+    private static final int RAZOR_MARGIN = 300;
+    private static final int LMR_DEPTH = 3;
+    private static final int LMR_MOVES = 3;
+    /* Late move reductions by the remaining depth and the number of the move */
+    private static final int[][] REDUCTIONS = new int[MAX_PLY][64];
+
+    static {
+        for(int d = 1; d < MAX_PLY; d++)
+            for(int m = 1; m < 64; m++)
+                REDUCTIONS[d][m] = (int)(0.5 + Math.log(d) * Math.log(m) / 2);
+    }
+
+    private final Position pos = new Position();
+    private final TranspositionTable table;
+    private final MoveGenerator moveGenerator = new MoveGenerator();
+    private final StaticExchange exchange = new StaticExchange();
+    private final int[] rootMoves = new int[600];
+    /* Move ordering state: one picker per ply, killers per ply, countermoves indexed by [piece code][field]
+    of the previous move and history scores of quiet moves and drops */
+    private final MovePicker[] pickers = new MovePicker[MAX_PLY];
+    private final int[][] killers = new int[MAX_PLY][2];
+    private final int[][] counterMoves = new int[32][81];
+    private final int[][][] history = new int[2][16][81];
+    private final int[][][] dropHistory = new int[2][8][81];
+    private final int[] currentMove = new int[MAX_PLY];
+    private final int[][] triedQuiets = new int[MAX_PLY][64];
+    /* Principal variations found at each ply, the one of ply 0 is the best line of the search */
+    private final int[][] pv = new int[MAX_PLY + 1][MAX_PLY + 1];
+    private final int[] pvLength = new int[MAX_PLY + 1];
+    /* Principal variation of the last completed iteration */
+    private final int[] lastPv = new int[MAX_PLY];
+    private int lastPvLength;
+    /* Positions of the game up to the root (read only) and the ply of the root in the game */
+    private RepetitionTable gameHistory = new RepetitionTable();
+    private int gamePly = -1;
+    /* Keys of the positions of the searched line and whether the moves leading to them gave check */
+    private final long[] keys = new long[MAX_PLY + 1];
+    private final boolean[] checks = new boolean[MAX_PLY + 1];
+    /* Stopped by a request or by the time limit; a request alone is cleared by prepare() only */
+    private volatile boolean stopped;
+    private volatile boolean stopRequested;
+    private long deadline;
+    private long nodes;
+    private int bestMove;
+    private int bestScore;
+    private int depth;
+    private int rootDepth;
+
+    /**
+     * Creates a search with its own transposition table of the default size.
+     */
+    public Search(){
+        this(new TranspositionTable(TranspositionTable.DEFAULT_SIZE_MB));
+    }
+
+    /**
+     * Creates a search using a given transposition table. The table may be shared with other searches,
+     * also running at the same time.
+     * @param table transposition table.
+     */
+    public Search(TranspositionTable table){
+        this.table = table;
+        for(int i = 0; i < MAX_PLY; i++)
+            pickers[i] = new MovePicker(moveGenerator, exchange, history, dropHistory);
+    }
+
+    /**
+     * Sets positions which occurred in the game up to the searched one; any of them reached again
+     * by the search is scored as a repetition. The table is only read, but it must not be changed
+     * while a search is running.
+     * @param history positions of the game, the last one should be the searched position;
+     *                empty if the search should not look at the game.
+     */
+    public void setHistory(RepetitionTable history){
+        gameHistory = history;
+        gamePly = history.getPly() - 1;
+    }
+
+    /**
+     * Clears a stop requested by {@link #stop()}, so that the next search runs. To be called before deciding
+     * to search, so that a stop requested in between is respected by the search.
+     */
+    public void prepare(){
+        stopRequested = false;
+    }
+
+    /**
+     * Searches a position for a given time or until {@link #stop()} is called. A search stopped
+     * since the last {@link #prepare()} returns at once.
+     * @param root searched position, it is copied and never changed.
+     * @param millis time limit in milliseconds, {@link Long#MAX_VALUE} for no limit.
+     * @param maxDepth maximal depth of the iterative deepening.
+     * @return best move found or {@link Move#NONE} if the side to move has no legal move.
+     */
+    public int think(Position root, long millis, int maxDepth){
+        return search(root, millis, maxDepth, 1);
+    }
+
+    /* Iterative deepening from a given depth; a stop requested before the start is respected */
+    int search(Position root, long millis, int maxDepth, int firstDepth){
+        /* The request is read after clearing, so a stop coming in between still sets the flag */
+        stopped = false;
+        if(stopRequested) stopped = true;
+        pos.copyFrom(root);
+        keys[0] = pos.getKey();
+        nodes = 0;
+        long start = System.currentTimeMillis();
+        deadline = millis > Long.MAX_VALUE - start ? Long.MAX_VALUE : start + millis;
+        lastPvLength = 0;
+        bestMove = Move.NONE;
+        bestScore = 0;
+        depth = 0;
+        /* Any legal move is better than none if the first iteration gets stopped */
+        if(moveGenerator.generateLegalMoves(pos, rootMoves) > 0) bestMove = rootMoves[0];
+        /* The move ordering starts afresh, so a search does not depend on the searches before it */
+        for(int[] k : killers)
+            k[0] = k[1] = Move.NONE;
+        for(int[] moves : counterMoves)
+            Arrays.fill(moves, Move.NONE);
+        for(int[][] side : history)
+            for(int[] scores : side)
+                Arrays.fill(scores, 0);
+        for(int[][] side : dropHistory)
+            for(int[] scores : side)
+                Arrays.fill(scores, 0);
+        for(int d = firstDepth; d <= Math.min(maxDepth, MAX_PLY - 1); d++){
+            rootDepth = d;
+            int score = pvs(d, -INFINITE, INFINITE, 0, true);
+            if(stopped) break;
+            depth = d;
+            bestScore = score;
+            lastPvLength = pvLength[0];
+            System.arraycopy(pv[0], 0, lastPv, 0, lastPvLength);
+            if(lastPvLength > 0) bestMove = lastPv[0];
+            /* A found mate will not get any better and the next iteration would rarely be finished in time */
+            if(Math.abs(score) >= MATE - MAX_PLY || System.currentTimeMillis() - start > millis / 2) break;
+        }
+        return bestMove;
+    }
+
+    /**
+     * Stops the search running in another thread. The search returns as soon as possible.
+     */
+    public void stop(){
+        stopRequested = true;
+        stopped = true;
+    }
+
+    /**
+     * Returns number of nodes visited by the last search.
+     * @return number of nodes.
+     */
+    public long getNodes(){
+        return nodes;
+    }
+
+    /**
+     * Returns depth of the last completed iteration of the last search.
+     * @return depth in plies.
+     */
+    public int getDepth(){
+        return depth;
+    }
+
+    /**
+     * Returns score of the best move found by the last search.
+     * @return score in centipawns from the point of view of the side to move in the root.
+     */
+    public int getScore(){
+        return bestScore;
+    }
+
+    /* Principal variation search of a node; a null move is not allowed right after another one
+    and in the search verifying its result */
+    private int pvs(int depth, int alpha, int beta, int ply, boolean nullAllowed){
+        pvLength[ply] = 0;
+        if(ply > 0){
+            int repetition = repetitionScore(ply);
+            if(repetition != NO_REPETITION) return repetition;
+        }
+        boolean inCheck = pos.inCheck();
+        /* A check is answered one ply deeper, in lines up to twice as long as the nominal depth */
+        if(inCheck && SearchOptions.checkExtensions && ply < 2 * rootDepth) depth++;
+        if(depth <= 0 || ply >= MAX_PLY - 1) return quiesce(alpha, beta, ply);
+        if((++nodes & 1023) == 0 && System.currentTimeMillis() >= deadline) stopped = true;
+        if(stopped) return 0;
+
+        /* Bounds of a stored result are only trusted outside the principal variation, so that it stays complete */
+        boolean pvNode = beta - alpha > 1;
+        long entry = table.probe(pos.getKey());
+        int hashMove = Move.NONE;
+        if(entry != 0){
+            hashMove = TranspositionTable.move(entry);
+            int score = fromTable(TranspositionTable.score(entry), ply), bound = TranspositionTable.bound(entry);
+            if(!pvNode && TranspositionTable.depth(entry) >= depth
+                    && (bound == TranspositionTable.EXACT || (bound == TranspositionTable.LOWER && score >= beta)
+                    || (bound == TranspositionTable.UPPER && score <= alpha)))
+                return score;
+        }
+        if(hashMove == Move.NONE && ply < lastPvLength) hashMove = lastPv[ply];
+
+        /* Selective pruning, never in the principal variation, in check or with mate scores at stake */
+        int eval = -INFINITE;
+        boolean futile = false;
+        if(!pvNode && !inCheck && Math.abs(beta) < MATE - MAX_PLY){
+            eval = Evaluation.evaluate(pos);
+            if(SearchOptions.futility && depth <= FUTILITY_DEPTH && eval - FUTILITY_MARGIN * depth >= beta)
+                return eval;
+            if(SearchOptions.razoring && depth <= RAZOR_DEPTH && eval + RAZOR_MARGIN * depth <= alpha){
+                int score = quiesce(alpha, beta, ply);
+                if(score <= alpha) return score;
+            }
+            if(SearchOptions.nullMove && nullAllowed && depth >= NULL_MOVE_DEPTH && eval >= beta){
+                int score = nullMoveSearch(depth, beta, ply);
+                if(stopped) return 0;
+                if(score >= beta) return score;
+                pvLength[ply] = 0;
+            }
+            futile = SearchOptions.futility && depth <= FUTILITY_DEPTH && eval + FUTILITY_MARGIN * depth <= alpha;
+        }
+
+        MovePicker picker = pickers[ply];
+        picker.init(pos, hashMove, killers[ply][0], killers[ply][1], counterMove(ply));
+        int best = -INFINITE, bestMove = Move.NONE, oldAlpha = alpha, count = 0, quiets = 0;
+        for(int move = picker.next(); move != Move.NONE; move = picker.next()){
+            int stage = picker.getStage();
+            long undo = pos.makeMove(move);
+            boolean givesCheck = pos.inCheck();
+            /* Quiet moves and bad captures can not bring a hopeless node up to alpha, unless they give check */
+            if(futile && count > 0 && stage >= MovePicker.KILLERS && !givesCheck){
+                pos.unmakeMove(undo);
+                count++;
+                best = Math.max(best, eval + FUTILITY_MARGIN * depth);
+                continue;
+            }
+            keys[ply + 1] = pos.getKey();
+            checks[ply + 1] = givesCheck;
+            currentMove[ply] = move;
+            int score;
+            if(count++ == 0) score = -pvs(depth - 1, -beta, -alpha, ply + 1, true);
+            else{
+                /* Late quiet moves, drops and bad captures are searched shallower first */
+                int reduction = 0;
+                if(SearchOptions.lateMoveReductions && depth >= LMR_DEPTH && count > LMR_MOVES
+                        && stage >= MovePicker.QUIETS && !inCheck && !givesCheck){
+                    reduction = REDUCTIONS[Math.min(depth, MAX_PLY - 1)][Math.min(count, REDUCTIONS[0].length - 1)];
+                    if(pvNode) reduction--;
+                    reduction = Math.max(0, Math.min(reduction, depth - 2));
+                }
+                score = -pvs(depth - 1 - reduction, -alpha - 1, -alpha, ply + 1, true);
+                if(reduction > 0 && score > alpha) score = -pvs(depth - 1, -alpha - 1, -alpha, ply + 1, true);
+                if(score > alpha && score < beta) score = -pvs(depth - 1, -beta, -alpha, ply + 1, true);
+            }
+            pos.unmakeMove(undo);
+            if(stopped) return 0;
+            if(score > best){
+                best = score;
+                bestMove = move;
+                if(score > alpha){
+                    alpha = score;
+                    pv[ply][0] = move;
+                    System.arraycopy(pv[ply + 1], 0, pv[ply], 1, pvLength[ply + 1]);
+                    pvLength[ply] = pvLength[ply + 1] + 1;
+                }
+                if(alpha >= beta){
+                    if(isQuiet(move)) updateQuietStats(ply, move, depth, quiets);
+                    break;
+                }
+            }
+            if(isQuiet(move) && quiets < triedQuiets[ply].length) triedQuiets[ply][quiets++] = move;
+        }
+        /* There are no stalemates in shogi, a player who can not move loses */
+        if(count == 0) return -MATE + ply;
+        table.store(pos.getKey(), bestMove, toTable(best, ply), depth, best >= beta ? TranspositionTable.LOWER
+                : best > oldAlpha ? TranspositionTable.EXACT : TranspositionTable.UPPER);
+        return best;
+    }
+
+    /* Passes the turn and searches the opponent's replies to a reduced depth; a result still failing high is
+    trusted directly at low depths and verified by a reduced search of the node without a null move at high ones */
+    private int nullMoveSearch(int depth, int beta, int ply){
+        int reduction = 2 + depth / 6;
+        pos.makeNullMove();
+        keys[ply + 1] = pos.getKey();
+        checks[ply + 1] = false;
+        currentMove[ply] = Move.NONE;
+        int score = -pvs(depth - 1 - reduction, -beta, -beta + 1, ply + 1, false);
+        pos.unmakeNullMove();
+        if(stopped || score < beta) return score;
+        /* A mate found after passing the turn is not proven */
+        if(score >= MATE - MAX_PLY) score = beta;
+        if(!SearchOptions.nullMoveVerification || depth < VERIFICATION_DEPTH) return score;
+        return pvs(depth - reduction, beta - 1, beta, ply, false);
+    }
+
+    /* Quiescence search: the side to move may stand pat on the static evaluation or try captures
+    and promotions not losing material; in check it must answer the check */
+    private int quiesce(int alpha, int beta, int ply){
+        if((++nodes & 1023) == 0 && System.currentTimeMillis() >= deadline) stopped = true;
+        if(stopped) return 0;
+        boolean inCheck = pos.inCheck();
+        if(ply >= MAX_PLY - 1) return inCheck ? 0 : Evaluation.evaluate(pos);
+
+        int best = -INFINITE;
+        MovePicker picker = pickers[ply];
+        if(inCheck) picker.initEvasions(pos);
+        else{
+            best = Evaluation.evaluate(pos);
+            if(best >= beta) return best;
+            if(best > alpha) alpha = best;
+            picker.initQuiescence(pos);
+        }
+        int count = 0;
+        for(int move = picker.next(); move != Move.NONE; move = picker.next()){
+            long undo = pos.makeMove(move);
+            currentMove[ply] = move;
+            count++;
+            int score = -quiesce(-beta, -alpha, ply + 1);
+            pos.unmakeMove(undo);
+            if(stopped) return 0;
+            if(score > best){
+                best = score;
+                if(score > alpha) alpha = score;
+                if(alpha >= beta) break;
+            }
+        }
+        if(inCheck && count == 0) return -MATE + ply;
+        return best;
+    }
+
+    /* Quiet moves neither capture nor promote; only they are ordered by killers and history */
+    private static boolean isQuiet(int move){
+        return !Move.isCapture(move) && !Move.isPromotion(move);
+    }
+
+    /* Countermove of the move which led to the node, indexed by the moved piece and its target field */
+    private int counterMove(int ply){
+        if(ply == 0 || currentMove[ply - 1] == Move.NONE) return Move.NONE;
+        int to = Move.to(currentMove[ply - 1]);
+        return counterMoves[pos.board[to]][to];
+    }
+
+    /* Rewards a quiet move which caused a cutoff and punishes the quiet moves tried before it */
+    private void updateQuietStats(int ply, int move, int depth, int quiets){
+        if(killers[ply][0] != move){
+            killers[ply][1] = killers[ply][0];
+            killers[ply][0] = move;
+        }
+        if(ply > 0 && currentMove[ply - 1] != Move.NONE){
+            int to = Move.to(currentMove[ply - 1]);
+            counterMoves[pos.board[to]][to] = move;
+        }
+        int bonus = Math.min(depth * depth, 400);
+        updateHistory(move, bonus);
+        for(int i = 0; i < quiets; i++)
+            updateHistory(triedQuiets[ply][i], -bonus);
+    }
+
+    /* Moves a history score towards the bonus; the scores saturate at HISTORY_MAX */
+    private void updateHistory(int move, int bonus){
+        int side = pos.getSideToMove(), to = Move.to(move);
+        int[] scores = Move.isDrop(move) ? dropHistory[side][Move.type(move)]
+                : history[side][pos.board[Move.from(move)] & 15];
+        scores[to] += bonus - scores[to] * Math.abs(bonus) / HISTORY_MAX;
+    }
+
+    /* Mate scores are stored relative to the node instead of the root */
+    private static int toTable(int score, int ply){
+        if(score >= MATE - MAX_PLY) return score + ply;
+        if(score <= -MATE + MAX_PLY) return score - ply;
+        return score;
+    }
+
+    /* Converts a stored score back to the distance from the root */
+    private static int fromTable(int score, int ply){
+        if(score >= MATE - MAX_PLY) return score - ply;
+        if(score <= -MATE + MAX_PLY) return score + ply;
+        return score;
+    }
+
+    /* Scores the position at a ply if it occurred earlier (its key covers the side to move): a loss for the side
+    which has been giving check on every move since the first occurrence, a draw otherwise */
+    private int repetitionScore(int ply){
+        long key = keys[ply];
+        int first = gameHistory.firstPly(key), moves = 0;
+        if(first >= 0) moves = (gamePly + ply - first) / 2;
+        else{
+            /* Not in the game, the line is scanned from the root */
+            for(int j = ply & 1; j < ply && moves == 0; j += 2)
+                if(keys[j] == key) moves = (ply - j) / 2;
+            if(moves == 0) return NO_REPETITION;
+        }
+        if(checkedAll(ply, moves)) return PERPETUAL_CHECK;
+        if(checkedAll(ply - 1, moves)) return -PERPETUAL_CHECK;
+        return 0;
+    }
+
+    /* Checks if the given number of moves of a player, the last one leading to a ply, all gave check;
+    the moves made before the root are looked up in the game */
+    private boolean checkedAll(int ply, int moves){
+        for(; moves > 0 && ply > 0; moves--, ply -= 2)
+            if(!checks[ply]) return false;
+        return moves == 0 || gameHistory.getCheckRun(gamePly + ply) >= moves;
+    }
+}
@@ -0,0 +1,138 @@
+/**
+ * Shogi - a simple online multiplayer game of Japanese chess.
+ * Copyright (C) 2018 Tomasz Ciborski
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package pl.umk.mat.tomaszcib.Engine;
+
+/**
+ * Switches of the selective techniques of the {@link Search}. All of them are on by default.<br><br>
+ * The switches may be set from a specification of comma-separated {@code name=on} or {@code name=off} items
+ * (see {@link #configure(String)}), eg. {@code "nullmove=off,lmr=off"}. The specification of the
+ * {@link #PROPERTY} system property is applied when the class is loaded, so the game may be started
+ * with {@code -Dshogi.search=...}. Switches must not be changed while a search is running.
+ */
+public final class SearchOptions {
+    /**
+     * Name of the system property read at start.
+     */
+    public static final String PROPERTY = "shogi.search";
+    /**
+     * Names of the switches, in the order of {@link #describe()}.
+     */
+    public static final String[] NAMES = {"nullmove", "verification", "lmr", "futility", "razoring", "extensions"};
+
+    /**
+     * Null move pruning: a position still failing high after passing the turn is cut off.
+     */
+    public static boolean nullMove = true;
+    /**
+     * Verification of null move cutoffs at high depths by a reduced search without a null move.
+     */
+    public static boolean nullMoveVerification = true;
+    /**
+     * Late move reductions: quiet moves, drops and bad captures ordered late are searched to a smaller depth.
+     */
+    public static boolean lateMoveReductions = true;
+    /**
+     * Futility pruning: near the leaves, nodes far above beta are cut off and quiet moves of nodes far below
+     * alpha are skipped.
+     */
+    public static boolean futility = true;
+    /**
+     * Razoring: nodes just above the leaves far below alpha are resolved by the quiescence search.
+     */
+    public static boolean razoring = true;
+    /**
+     * Check extensions: a node in check is searched one ply deeper.
+     */
+    public static boolean checkExtensions = true;
+
+    /* A malformed property must not make the class unusable; the options it may have partly set are reset */
+    static {
+        String spec = System.getProperty(PROPERTY);
+        if(spec != null){
+            try {
+                configure(spec);
+            } catch(IllegalArgumentException e){
+                System.err.println("Ignoring -D" + PROPERTY + ": " + e.getMessage());
+                setAll(true);
+            }
+        }
+    }
+
+    private SearchOptions(){}
+
+    /**
+     * Sets all the switches at once.
+     * @param on true to switch every technique on, false to get a plain full-width search.
+     */
+    public static void setAll(boolean on){
+        for(String name : NAMES)
+            set(name, on);
+    }
+
+    /**
+     * Sets a switch by its name.
+     * @param name one of {@link #NAMES}.
+     * @param on new state.
+     * @throws IllegalArgumentException if there is no switch of the name.
+     */
+    public static void set(String name, boolean on){
+        switch(name){
+            case "nullmove": nullMove = on; break;
+            case "verification": nullMoveVerification = on; break;
+            case "lmr": lateMoveReductions = on; break;
+            case "futility": futility = on; break;
+            case "razoring": razoring = on; break;
+            case "extensions": checkExtensions = on; break;
+            default: throw new IllegalArgumentException("Unknown search option: " + name);
+        }
+    }
+
+    /**
+     * Sets switches from a specification of comma-separated {@code name=on} and {@code name=off} items.
+     * The name {@code all} stands for all the switches.
+     * @param spec specification, eg. {@code "all=off,lmr=on"}; items are applied in order.
+     * @throws IllegalArgumentException if the specification is malformed.
+     */
+    public static void configure(String spec){
+        for(String item : spec.split(",")){
+            item = item.trim();
+            if(item.isEmpty()) continue;
+            String[] parts = item.split("=");
+            if(parts.length != 2 || !(parts[1].equals("on") || parts[1].equals("off")))
+                throw new IllegalArgumentException("Malformed search option: " + item);
+            boolean on = parts[1].equals("on");
+            if(parts[0].equals("all")) setAll(on);
+            else set(parts[0], on);
+        }
+    }
+
+    /**
+     * Describes the current state of the switches.
+     * @return specification accepted by {@link #configure(String)}.
+     */
+    public static String describe(){
+        boolean[] state = {nullMove, nullMoveVerification, lateMoveReductions, futility, razoring, checkExtensions};
+        StringBuilder s = new StringBuilder();
+        for(int i = 0; i < NAMES.length; i++){
+            if(i > 0) s.append(',');
+            s.append(NAMES[i]).append(state[i] ? "=on" : "=off");
+        }
+        return s.toString();
+    }
+}
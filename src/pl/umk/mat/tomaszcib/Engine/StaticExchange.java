@@ -0,0 +1,107 @@
+/**
+ * Shogi - a simple online multiplayer game of Japanese chess.
+ * Copyright (C) 2018 Tomasz Ciborski
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package pl.umk.mat.tomaszcib.Engine;
+
+import pl.umk.mat.tomaszcib.GameLogic.Bitboard;
+import pl.umk.mat.tomaszcib.GameLogic.Move;
+import pl.umk.mat.tomaszcib.GameLogic.MoveGenerator;
+import pl.umk.mat.tomaszcib.GameLogic.PieceSquare;
+import pl.umk.mat.tomaszcib.GameLogic.Position;
+
+/**
+ * Static exchange evaluation (SEE): the material outcome of a move followed by the sequence of captures
+ * on its target field, each side capturing with its least valuable piece and free to stop when
+ * further capturing would not pay off.<br><br>
+ * The captures are played on the position itself and taken back before returning, so the attack counts
+ * kept by the position reveal the pieces standing behind each capturing piece (x-rays) without any extra work.
+ * A recapturing piece promotes whenever it may (see {@link MoveGenerator#mayPromote(int, int, int)}),
+ * which covers the forced promotions on the last rows. Pins are not taken into account, and the king only captures
+ * if the field is not defended any more.
+ * Buffers are kept in the instance, so a single instance must be confined to one thread.
+ */
+public class StaticExchange {
+    /* Longest possible sequence: every piece of the game captures on one field */
+    private static final int MAX_CAPTURES = 41;
+    /* The king outweighs any exchange */
+    private static final int KING_VALUE = 100000;
+
+    private final int[] gain = new int[MAX_CAPTURES];
+    private final long[] undo = new long[MAX_CAPTURES];
+    private final Bitboard attackers = new Bitboard();
+
+    /**
+     * Evaluates a move with the static exchange on its target field.
+     * @param pos current position; it is changed during the evaluation and restored before returning.
+     * @param move legal move of the side to move (see {@link Move}).
+     * @return material balance of the exchange for the moving side, in centipawns of {@link PieceSquare#VALUE}.
+     * Positive values mean the move wins material, negative ones - that it loses material.
+     */
+    public int see(Position pos, int move){
+        int to = Move.to(move), n = 1, made = 1;
+        int captured = pos.board[to];
+        gain[0] = captured == Position.EMPTY ? 0 : PieceSquare.VALUE[captured & 15];
+        if(Move.isPromotion(move)){
+            int code = pos.board[Move.from(move)] & 15;
+            gain[0] += PieceSquare.VALUE[code | Position.PROMOTED] - PieceSquare.VALUE[code];
+        }
+        undo[0] = pos.makeMove(move);
+        while(n < MAX_CAPTURES){
+            int side = pos.getSideToMove();
+            pos.attackersTo(to, side, attackers);
+            if(attackers.isEmpty()) break;
+            /* The least valuable attacker captures */
+            int from = -1, value = Integer.MAX_VALUE;
+            for(int sq = attackers.pop(); sq != -1; sq = attackers.pop()){
+                int code = pos.board[sq], v = (code & 7) == 0 ? KING_VALUE : PieceSquare.VALUE[code & 15];
+                if(v < value){
+                    value = v;
+                    from = sq;
+                }
+            }
+            if(value == KING_VALUE && pos.isAttacked(to, 1 - side)) break;
+            int code = pos.board[from] & 15;
+            boolean promote = MoveGenerator.mayPromote(pos.board[from], from, to);
+            gain[n] = PieceSquare.VALUE[pos.board[to] & 15] - gain[n - 1];
+            if(promote) gain[n] += PieceSquare.VALUE[code | Position.PROMOTED] - PieceSquare.VALUE[code];
+            /* Neither side can change the outcome any more, the capture needs not be made */
+            if(Math.max(-gain[n - 1], gain[n]) < 0){
+                n++;
+                break;
+            }
+            undo[n++] = pos.makeMove(Move.of(from, to, code & 7, promote) | Move.CAPTURE);
+            made = n;
+        }
+        for(int i = made - 1; i >= 0; i--)
+            pos.unmakeMove(undo[i]);
+        /* Each side stops capturing if it would lose by going on */
+        while(--n > 0)
+            gain[n - 1] = -Math.max(-gain[n - 1], gain[n]);
+        return gain[0];
+    }
+
+    /**
+     * Checks if a move does not lose material in the static exchange on its target field.
+     * @param pos current position; it is changed during the evaluation and restored before returning.
+     * @param move legal move of the side to move.
+     * @return true if {@link #see(Position, int)} is not negative.
+     */
+    public boolean isSafe(Position pos, int move){
+        return see(pos, move) >= 0;
+    }
+}
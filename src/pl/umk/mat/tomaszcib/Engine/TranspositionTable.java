@@ -0,0 +1,238 @@
+/**
+ * Shogi - a simple online multiplayer game of Japanese chess.
+ * Copyright (C) 2018 Tomasz Ciborski
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package pl.umk.mat.tomaszcib.Engine;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Transposition table of the {@link Search}, storing results of searched positions by their Zobrist keys.<br><br>
+ * The table lives outside of the Java heap, in direct byte buffers, so even a table of several gigabytes
+ * does not make garbage collection any slower. It is divided into buckets of four 16-byte entries
+ * (one cache line). An entry consists of two longs: the packed data (move, score, depth, bound and age)
+ * and the key XOR-ed with the data. Any number of threads may read and write the table without locking:
+ * an entry torn by two simultaneous writes no longer passes the XOR check and is treated as missing.<br><br>
+ * The data are returned by {@link #probe(long)} as a single long, decoded with the static methods of the class.
+ * A value of 0 means no entry.
+ */
+public class TranspositionTable {
+    /**
+     * Default size of the table in megabytes.
+     */
+    public static final int DEFAULT_SIZE_MB = 64;
+    /**
+     * Bound type: the stored score is an upper bound (no move reached alpha).
+     */
+    public static final int UPPER = 1;
+    /**
+     * Bound type: the stored score is a lower bound (the search failed high).
+     */
+    public static final int LOWER = 2;
+    /**
+     * Bound type: the stored score is exact.
+     */
+    public static final int EXACT = 3;
+
+    private static final int ENTRY_SIZE = 16;
+    private static final int BUCKET_SIZE = 4 * ENTRY_SIZE;
+    /* Direct buffers are indexed with ints, so larger tables are split into chunks of 1 GB */
+    private static final int CHUNK_SHIFT = 30 - 6;
+    private static final int AGE_MASK = 63;
+
+    /* Layout of the data: move (20 bits), score (16 bits), depth (8 bits), bound (2 bits), age (6 bits) */
+    private static final int SCORE_SHIFT = 20;
+    private static final int DEPTH_SHIFT = 36;
+    private static final int BOUND_SHIFT = 44;
+    private static final int AGE_SHIFT = 46;
+
+    private ByteBuffer[] chunks;
+    private long bucketMask;
+    private int age;
+
+    /**
+     * Allocates a table.
+     * @param megabytes size of the table in megabytes; rounded down to a power of two.
+     */
+    public TranspositionTable(int megabytes){
+        resize(megabytes);
+    }
+
+    /**
+     * Reallocates the table with a new size. All the stored entries are lost.
+     * Must not be called while the table is being searched.
+     * @param megabytes size of the table in megabytes; rounded down to a power of two.
+     */
+    public void resize(int megabytes){
+        long buckets = Long.highestOneBit(Math.max(megabytes, 1) * (1L << 20) / BUCKET_SIZE);
+        int bucketsPerChunk = (int)Math.min(buckets, 1L << CHUNK_SHIFT);
+        chunks = new ByteBuffer[(int)(buckets / bucketsPerChunk)];
+        for(int i = 0; i < chunks.length; i++)
+            chunks[i] = ByteBuffer.allocateDirect(bucketsPerChunk * BUCKET_SIZE).order(ByteOrder.nativeOrder());
+        bucketMask = buckets - 1;
+        age = 0;
+    }
+
+    /**
+     * Returns size of the table.
+     * @return size in bytes.
+     */
+    public long size(){
+        return (bucketMask + 1) * BUCKET_SIZE;
+    }
+
+    /**
+     * Removes all the entries. Must not be called while the table is being searched.
+     */
+    public void clear(){
+        for(ByteBuffer chunk : chunks)
+            for(int i = 0; i < chunk.capacity(); i += 8)
+                chunk.putLong(i, 0);
+        age = 0;
+    }
+
+    /**
+     * Starts a new search. Entries of the previous searches are kept and may still be found,
+     * but they are replaced before the ones of the current search.
+     */
+    public void newSearch(){
+        age = (age + 1) & AGE_MASK;
+    }
+
+    /* Buffer holding a bucket */
+    private ByteBuffer chunk(long bucket){
+        return chunks[(int)(bucket >>> CHUNK_SHIFT)];
+    }
+
+    /* Offset of a bucket in its buffer */
+    private static int offset(long bucket){
+        return (int)(bucket & ((1L << CHUNK_SHIFT) - 1)) * BUCKET_SIZE;
+    }
+
+    /**
+     * Looks a position up in the table.
+     * @param key Zobrist key of the position.
+     * @return packed data of the entry or 0 if the position is not stored.
+     */
+    public long probe(long key){
+        long bucket = key & bucketMask;
+        ByteBuffer chunk = chunk(bucket);
+        int base = offset(bucket);
+        for(int i = 0; i < 4; i++){
+            long data = chunk.getLong(base + i * ENTRY_SIZE);
+            if(data != 0 && (chunk.getLong(base + i * ENTRY_SIZE + 8) ^ data) == key) return data;
+        }
+        return 0;
+    }
+
+    /**
+     * Stores a search result. The entry of the same position is overwritten, otherwise the entry of the lowest depth
+     * is replaced, entries of the previous searches first.
+     * @param key Zobrist key of the position.
+     * @param move best move or {@link pl.umk.mat.tomaszcib.GameLogic.Move#NONE}; if none is given,
+     *             the move of the previous entry of the position is kept.
+     * @param score score of the position, between -32768 and 32767.
+     * @param depth searched depth, between 0 and 255.
+     * @param bound {@link #UPPER}, {@link #LOWER} or {@link #EXACT}.
+     */
+    public void store(long key, int move, int score, int depth, int bound){
+        long bucket = key & bucketMask;
+        ByteBuffer chunk = chunk(bucket);
+        int base = offset(bucket);
+        int replace = 0, worst = Integer.MAX_VALUE;
+        for(int i = 0; i < 4; i++){
+            int index = base + i * ENTRY_SIZE;
+            long old = chunk.getLong(index);
+            if(old == 0 || (chunk.getLong(index + 8) ^ old) == key){
+                if(move == 0 && old != 0) move = move(old);
+                replace = index;
+                break;
+            }
+            /* Every search the entry survives costs it as much as 8 plies of depth */
+            int value = depth(old) - 8 * ((age - age(old)) & AGE_MASK);
+            if(value < worst){
+                worst = value;
+                replace = index;
+            }
+        }
+        long data = (move & 0xFFFFFL) | (score & 0xFFFFL) << SCORE_SHIFT | (long)(depth & 0xFF) << DEPTH_SHIFT
+                | (long)bound << BOUND_SHIFT | (long)age << AGE_SHIFT;
+        chunk.putLong(replace, data);
+        chunk.putLong(replace + 8, key ^ data);
+    }
+
+    /**
+     * Estimates how full the table is, from the first thousand buckets.
+     * @return permille of the entries written by the current search.
+     */
+    public int hashfull(){
+        int used = 0;
+        long buckets = Math.min(bucketMask + 1, 1000);
+        for(long b = 0; b < buckets; b++)
+            for(int i = 0; i < 4; i++){
+                long data = chunk(b).getLong(offset(b) + i * ENTRY_SIZE);
+                if(data != 0 && age(data) == age) used++;
+            }
+        return (int)(used * 1000 / (buckets * 4));
+    }
+
+    /**
+     * Extracts the best move from packed data.
+     * @param data value returned by {@link #probe(long)}.
+     * @return packed move (see {@link pl.umk.mat.tomaszcib.GameLogic.Move}).
+     */
+    public static int move(long data){
+        return (int)(data & 0xFFFFF);
+    }
+
+    /**
+     * Extracts the score from packed data.
+     * @param data value returned by {@link #probe(long)}.
+     * @return stored score.
+     */
+    public static int score(long data){
+        return (short)(data >>> SCORE_SHIFT);
+    }
+
+    /**
+     * Extracts the searched depth from packed data.
+     * @param data value returned by {@link #probe(long)}.
+     * @return depth in plies.
+     */
+    public static int depth(long data){
+        return (int)(data >>> DEPTH_SHIFT) & 0xFF;
+    }
+
+    /**
+     * Extracts the bound type from packed data.
+     * @param data value returned by {@link #probe(long)}.
+     * @return {@link #UPPER}, {@link #LOWER} or {@link #EXACT}.
+     */
+    public static int bound(long data){
+        return (int)(data >>> BOUND_SHIFT) & 3;
+    }
+
+    /**
+     * Extracts the age (number of the search modulo 64) from packed data.
+     * @param data value returned by {@link #probe(long)}.
+     * @return age of the entry.
+     */
+    public static int age(long data){
+        return (int)(data >>> AGE_SHIFT) & AGE_MASK;
+    }
+}
@@ -0,0 +1,181 @@
+/**
+ * Shogi - a simple online multiplayer game of Japanese chess.
+ * Copyright (C) 2018 Tomasz Ciborski
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package pl.umk.mat.tomaszcib.Engine;
+
+import pl.umk.mat.tomaszcib.GameLogic.Move;
+import pl.umk.mat.tomaszcib.GameLogic.Position;
+
+import java.io.*;
+import java.util.ArrayDeque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Command line solver of mate problems, running on all the processors. Positions in SFEN notation are streamed
+ * from a file, one per line with the attacker to move, and solved in parallel on a {@link ForkJoinPool},
+ * each within a limit of nodes and time. Every worker thread has its own {@link MateSolver} with its own
+ * position and {@link ProofTable}, so the workers share nothing.<br><br>
+ * Results are written as soon as they are known, in the order of the problems: the number of the line,
+ * the position and {@code mate <plies> <moves>}, {@code nomate}, {@code unsolved} if a limit was reached
+ * or {@code error <message>} for a malformed position. Only a limited number of problems is read ahead,
+ * so files of any size may be solved. Empty lines and lines starting with # are skipped. The throughput
+ * is reported at the end.<br><br>
+ * Usage: <b>TsumeBatch &lt;problem file&gt; [output file or -] [node limit] [time limit in ms] [threads]
+ * [table size in MB per thread]</b>; a limit of 0 means no limit.
+ */
+public class TsumeBatch {
+    /* Problems read ahead per thread */
+    private static final int READ_AHEAD = 8;
+
+    private final long maxNodes;
+    private final long millis;
+    private final ThreadLocal<MateSolver> solvers;
+    private long proven, disproven, unsolved, errors, nodes;
+
+    /**
+     * Creates a batch.
+     * @param maxNodes limit of nodes per problem, {@link Long#MAX_VALUE} for no limit.
+     * @param millis time limit per problem in milliseconds, {@link Long#MAX_VALUE} for no limit.
+     * @param megabytes size of the proof table of every worker thread.
+     */
+    public TsumeBatch(long maxNodes, long millis, final int megabytes){
+        this.maxNodes = maxNodes;
+        this.millis = millis;
+        solvers = new ThreadLocal<MateSolver>(){
+            @Override
+            protected MateSolver initialValue(){
+                return new MateSolver(new ProofTable(megabytes), MateSolver.DEFAULT_MAX_PLY);
+            }
+        };
+    }
+
+    /* A problem solved by a worker thread; the result is a line of the output */
+    private class Problem extends RecursiveTask<String> {
+        private static final long serialVersionUID = 1L;
+        private final int number;
+        private final String sfen;
+        private int result = -1;
+        private long visited;
+
+        Problem(int number, String sfen){
+            this.number = number;
+            this.sfen = sfen;
+        }
+
+        @Override
+        protected String compute(){
+            String text;
+            try {
+                MateSolver solver = solvers.get();
+                result = solver.solve(new Position(sfen), maxNodes, millis);
+                visited = solver.getNodes();
+                text = format(solver, result);
+            } catch (IllegalArgumentException e) {
+                text = "error " + e.getMessage();
+            }
+            return number + " " + sfen + " | " + text;
+        }
+    }
+
+    /**
+     * Formats the result of a solve.
+     * @param solver solver after the solve.
+     * @param result value returned by {@link MateSolver#solve(Position, long, long)}.
+     * @return {@code mate <plies> <moves>}, {@code nomate} or {@code unsolved}.
+     */
+    static String format(MateSolver solver, int result){
+        if(result == MateSolver.DISPROVEN) return "nomate";
+        if(result != MateSolver.PROVEN) return "unsolved";
+        StringBuilder s = new StringBuilder("mate ").append(solver.getMateLength());
+        for(int move : solver.getPv())
+            s.append(' ').append(Move.toString(move));
+        return s.toString();
+    }
+
+    /**
+     * Solves all the problems of a stream.
+     * @param in problems, one position in SFEN notation per line.
+     * @param out output of the results, written and flushed in the order of the problems.
+     * @param pool pool of the worker threads.
+     * @return number of problems.
+     * @throws IOException if the problems can not be read.
+     */
+    public long run(BufferedReader in, PrintWriter out, ForkJoinPool pool) throws IOException {
+        ArrayDeque<Problem> pending = new ArrayDeque<>();
+        int number = 0;
+        long count = 0;
+        for(String line = in.readLine(); line != null; line = in.readLine()){
+            number++;
+            line = line.trim();
+            if(line.isEmpty() || line.startsWith("#")) continue;
+            Problem problem = new Problem(number, line);
+            pool.execute(problem);
+            pending.add(problem);
+            count++;
+            if(pending.size() >= READ_AHEAD * pool.getParallelism()) write(pending.poll(), out);
+        }
+        while(!pending.isEmpty())
+            write(pending.poll(), out);
+        return count;
+    }
+
+    /* Waits for a problem and writes its result */
+    private void write(Problem problem, PrintWriter out){
+        out.println(problem.join());
+        out.flush();
+        nodes += problem.visited;
+        if(problem.result == MateSolver.PROVEN) proven++;
+        else if(problem.result == MateSolver.DISPROVEN) disproven++;
+        else if(problem.result == MateSolver.UNKNOWN) unsolved++;
+        else errors++;
+    }
+
+    /**
+     * Runs the solver.
+     * @param args path of the problem file, optional path of the output file or - for the standard output (default),
+     *             limit of nodes and time in milliseconds per problem (default 0: no limit), number of threads
+     *             (default: number of processors) and size of the proof table per thread in megabytes.
+     * @throws IOException if the problem file can not be read or the output file can not be written.
+     */
+    public static void main(String[] args) throws IOException {
+        if(args.length < 1){
+            System.err.println("Usage: TsumeBatch <problem file> [output file or -] [node limit] [time limit in ms]"
+                    + " [threads] [table size in MB per thread]");
+            System.exit(1);
+        }
+        long maxNodes = args.length > 2 ? Long.parseLong(args[2]) : 0;
+        long millis = args.length > 3 ? Long.parseLong(args[3]) : 0;
+        int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+        int megabytes = args.length > 5 ? Integer.parseInt(args[5]) : ProofTable.DEFAULT_SIZE_MB;
+        TsumeBatch batch = new TsumeBatch(maxNodes > 0 ? maxNodes : Long.MAX_VALUE,
+                millis > 0 ? millis : Long.MAX_VALUE, megabytes);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        long start = System.nanoTime(), count;
+        try(BufferedReader in = new BufferedReader(new FileReader(args[0]));
+            PrintWriter out = args.length < 2 || args[1].equals("-") ? new PrintWriter(System.out)
+                    : new PrintWriter(new BufferedWriter(new FileWriter(args[1])))){
+            count = batch.run(in, out, pool);
+        }
+        pool.shutdown();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.err.printf("%d problems on %d threads: %d mate, %d no mate, %d unsolved, %d errors%n", count, threads,
+                batch.proven, batch.disproven, batch.unsolved, batch.errors);
+        System.err.printf("%.1f s, %.1f problems/s, %.0f nodes/s%n", seconds, count / seconds, batch.nodes / seconds);
+    }
+}
@@ -0,0 +1,348 @@
+/**
+ * Shogi - a simple online multiplayer game of Japanese chess.
+ * Copyright (C) 2018 Tomasz Ciborski
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package pl.umk.mat.tomaszcib.GameLogic;
+
+/**
+ * Precomputed attack tables shared by the move generator, the position and the engine.<br><br>
+ * Tables of the non-sliding pieces are indexed by [side][field] and built once, when the class is loaded,
+ * so no board edge checks are needed while generating moves. The returned bitboards are shared
+ * and must never be modified.<br><br>
+ * Sliding pieces use a rotated occupancy scheme: {@link Position} keeps a 9-bit occupancy mask of every row,
+ * column and diagonal, and attacks along a line are looked up by the field and the 7 inner bits of that mask
+ * (a piece standing on the end of a line never blocks anything).
+ */
+public final class Attacks {
+    /**
+     * Fields attacked by a pawn.
+     */
+    public static final Bitboard[][] PAWN = new Bitboard[2][81];
+    /**
+     * Fields attacked by a knight.
+     */
+    public static final Bitboard[][] KNIGHT = new Bitboard[2][81];
+    /**
+     * Fields attacked by a silver general.
+     */
+    public static final Bitboard[][] SILVER = new Bitboard[2][81];
+    /**
+     * Fields attacked by a golden general and the promoted silver, knight, lance and pawn.
+     */
+    public static final Bitboard[][] GOLD = new Bitboard[2][81];
+    /**
+     * Fields attacked by a king.
+     */
+    public static final Bitboard[][] KING = new Bitboard[2][81];
+    /**
+     * Extra diagonal steps of a promoted rook (dragon).
+     */
+    public static final Bitboard[][] DRAGON_STEP = new Bitboard[2][81];
+    /**
+     * Extra orthogonal steps of a promoted bishop (horse).
+     */
+    public static final Bitboard[][] HORSE_STEP = new Bitboard[2][81];
+    /**
+     * Steps of any piece, indexed by [piece code][field]. Entries of pure sliding pieces are empty.
+     */
+    public static final Bitboard[][] STEP = new Bitboard[32][];
+    /**
+     * Fields attacked by a rook on an empty board. Used for finding pieces which may pin or check through others.
+     */
+    public static final Bitboard[] ROOK_RAY = new Bitboard[81];
+    /**
+     * Fields attacked by a bishop on an empty board.
+     */
+    public static final Bitboard[] BISHOP_RAY = new Bitboard[81];
+    /**
+     * Fields attacked by an unpromoted lance on an empty board.
+     */
+    public static final Bitboard[][] LANCE_RAY = new Bitboard[2][81];
+
+    /* Line kinds of the sliding tables */
+    private static final int RANK = 0, FILE = 1, DIAGONAL = 2, ANTIDIAGONAL = 3;
+    /* Sliding attacks along a line, indexed by [line kind][field * 128 + inner occupancy of the line] */
+    private static final long[][] LINE_LO = new long[4][81 * 128];
+    private static final long[][] LINE_HI = new long[4][81 * 128];
+    /* Lance attacks, indexed by [side][field * 128 + inner occupancy of the column] */
+    private static final long[][] LANCE_LO = new long[2][81 * 128];
+    private static final long[][] LANCE_HI = new long[2][81 * 128];
+    /* Line of each kind containing a field and the bit of the field in the occupancy mask of that line */
+    private static final int[][] LINE = new int[4][81];
+    private static final int[][] BIT = new int[4][81];
+    /* Fields strictly between two aligned fields, indexed by [first field][second field] */
+    private static final Bitboard[][] BETWEEN = new Bitboard[81][81];
+
+    private static final Bitboard NONE = new Bitboard();
+    private static final Bitboard[] NONE_TABLE = new Bitboard[81];
+
+    static {
+        int[][] king = {{-1,-1},{-1,0},{-1,1},{0,-1},{0,1},{1,-1},{1,0},{1,1}};
+        int[][] gold = {{-1,-1},{-1,0},{-1,1},{0,-1},{0,1},{1,0}};
+        int[][] silver = {{-1,-1},{-1,0},{-1,1},{1,-1},{1,1}};
+        int[][] knight = {{-2,-1},{-2,1}};
+        int[][] pawn = {{-1,0}};
+        int[][] orthogonal = {{-1,0},{1,0},{0,-1},{0,1}};
+        int[][] diagonal = {{-1,-1},{-1,1},{1,-1},{1,1}};
+        for(int sq = 0; sq < 81; sq++)
+            NONE_TABLE[sq] = NONE;
+        for(int side = 0; side < 2; side++){
+            for(int sq = 0; sq < 81; sq++){
+                PAWN[side][sq] = steps(pawn, side, sq);
+                KNIGHT[side][sq] = steps(knight, side, sq);
+                SILVER[side][sq] = steps(silver, side, sq);
+                GOLD[side][sq] = steps(gold, side, sq);
+                KING[side][sq] = steps(king, side, sq);
+                DRAGON_STEP[side][sq] = steps(diagonal, side, sq);
+                HORSE_STEP[side][sq] = steps(orthogonal, side, sq);
+            }
+            int s = side << Position.SIDE_SHIFT;
+            for(int pc = 0; pc < 16; pc++)
+                STEP[s | pc] = NONE_TABLE;
+            STEP[s | PieceType.KING.getValue()] = KING[side];
+            STEP[s | PieceType.GOLDEN_GENERAL.getValue()] = GOLD[side];
+            STEP[s | PieceType.SILVER_GENERAL.getValue()] = SILVER[side];
+            STEP[s | PieceType.KNIGHT.getValue()] = KNIGHT[side];
+            STEP[s | PieceType.PAWN.getValue()] = PAWN[side];
+            STEP[s | Position.PROMOTED | PieceType.SILVER_GENERAL.getValue()] = GOLD[side];
+            STEP[s | Position.PROMOTED | PieceType.KNIGHT.getValue()] = GOLD[side];
+            STEP[s | Position.PROMOTED | PieceType.LANCE.getValue()] = GOLD[side];
+            STEP[s | Position.PROMOTED | PieceType.PAWN.getValue()] = GOLD[side];
+            STEP[s | Position.PROMOTED | PieceType.ROOK.getValue()] = DRAGON_STEP[side];
+            STEP[s | Position.PROMOTED | PieceType.BISHOP.getValue()] = HORSE_STEP[side];
+        }
+        for(int sq = 0; sq < 81; sq++){
+            LINE[RANK][sq] = sq / 9;
+            LINE[FILE][sq] = sq % 9;
+            LINE[DIAGONAL][sq] = sq / 9 - sq % 9 + 8;
+            LINE[ANTIDIAGONAL][sq] = sq / 9 + sq % 9;
+            BIT[RANK][sq] = BIT[DIAGONAL][sq] = BIT[ANTIDIAGONAL][sq] = sq % 9;
+            BIT[FILE][sq] = sq / 9;
+        }
+        for(int sq = 0; sq < 81; sq++)
+            for(int occ = 0; occ < 128; occ++){
+                int i = sq << 7 | occ;
+                slide(LINE_LO[RANK], LINE_HI[RANK], i, sq, occ, 0, 1, 0, -1);
+                slide(LINE_LO[FILE], LINE_HI[FILE], i, sq, occ, 1, 0, -1, 0);
+                slide(LINE_LO[DIAGONAL], LINE_HI[DIAGONAL], i, sq, occ, 1, 1, -1, -1);
+                slide(LINE_LO[ANTIDIAGONAL], LINE_HI[ANTIDIAGONAL], i, sq, occ, 1, -1, -1, 1);
+                slide(LANCE_LO[0], LANCE_HI[0], i, sq, occ, -1, 0, 0, 0);
+                slide(LANCE_LO[1], LANCE_HI[1], i, sq, occ, 1, 0, 0, 0);
+            }
+        for(int sq = 0; sq < 81; sq++){
+            int i = sq << 7;
+            ROOK_RAY[sq] = new Bitboard(LINE_LO[RANK][i] | LINE_LO[FILE][i], LINE_HI[RANK][i] | LINE_HI[FILE][i]);
+            BISHOP_RAY[sq] = new Bitboard(LINE_LO[DIAGONAL][i] | LINE_LO[ANTIDIAGONAL][i],
+                    LINE_HI[DIAGONAL][i] | LINE_HI[ANTIDIAGONAL][i]);
+            LANCE_RAY[0][sq] = new Bitboard(LANCE_LO[0][i], LANCE_HI[0][i]);
+            LANCE_RAY[1][sq] = new Bitboard(LANCE_LO[1][i], LANCE_HI[1][i]);
+        }
+        for(int a = 0; a < 81; a++)
+            for(int b = 0; b < 81; b++){
+                BETWEEN[a][b] = new Bitboard();
+                int dr = Integer.signum(b / 9 - a / 9), dc = Integer.signum(b % 9 - a % 9);
+                if(a == b || (a / 9 != b / 9 && a % 9 != b % 9 && Math.abs(b / 9 - a / 9) != Math.abs(b % 9 - a % 9)))
+                    continue;
+                for(int sq = a + dr * 9 + dc; sq != b; sq += dr * 9 + dc)
+                    BETWEEN[a][b].set(sq);
+            }
+    }
+
+    /* Builds a table entry of fields reachable in one step. Directions are given for side 0. */
+    private static Bitboard steps(int[][] directions, int side, int sq){
+        Bitboard b = new Bitboard();
+        int dir = side == 0 ? 1 : -1;
+        for(int[] d : directions){
+            int r = sq / 9 + d[0] * dir, c = sq % 9 + d[1] * dir;
+            if(r >= 0 && r < 9 && c >= 0 && c < 9) b.set(r * 9 + c);
+        }
+        return b;
+    }
+
+    /* Builds a sliding table entry for up to two opposite directions (row, column) of a single line.
+    Bits of the line occupancy are indexed by column, or by row for vertical lines. */
+    private static void slide(long[] lo, long[] hi, int i, int sq, int occ, int dr1, int dc1, int dr2, int dc2){
+        Bitboard b = new Bitboard();
+        int[][] directions = {{dr1, dc1}, {dr2, dc2}};
+        for(int[] d : directions){
+            if(d[0] == 0 && d[1] == 0) continue;
+            int r = sq / 9 + d[0], c = sq % 9 + d[1];
+            while(r >= 0 && r < 9 && c >= 0 && c < 9){
+                b.set(r * 9 + c);
+                if(((occ << 1) & (1 << (d[1] == 0 ? r : c))) != 0) break;
+                r += d[0];
+                c += d[1];
+            }
+        }
+        lo[i] = b.lo;
+        hi[i] = b.hi;
+    }
+
+    /* Occupancy of a line containing field sq after a piece moved from one field to another (-1 if none).
+    Bits are indexed like in the occupancy masks of the position. */
+    private static int occupancy(int[] lines, int kind, int sq, int from, int to){
+        int line = LINE[kind][sq], occ = lines[line];
+        if(from >= 0 && LINE[kind][from] == line) occ &= ~(1 << BIT[kind][from]);
+        if(to >= 0 && LINE[kind][to] == line) occ |= 1 << BIT[kind][to];
+        return sq << 7 | (occ >> 1 & 127);
+    }
+
+    /**
+     * Computes fields attacked by a rook (without the extra steps of a dragon).
+     * @param sq position of the piece.
+     * @param pos position providing the occupancy.
+     * @param out bitboard to be overwritten.
+     * @return the out bitboard.
+     */
+    public static Bitboard rook(int sq, Position pos, Bitboard out){
+        out.clearAll();
+        return addRook(sq, pos, -1, -1, out);
+    }
+
+    /**
+     * Adds fields attacked by a rook (without the extra steps of a dragon) to a bitboard, as if a piece moved
+     * from one field to another. This lets the move generator check a move without making it.
+     * @param sq position of the piece.
+     * @param pos position providing the occupancy.
+     * @param from field left empty or -1.
+     * @param to field occupied or -1.
+     * @param out bitboard the attacked fields are added to.
+     * @return the out bitboard.
+     */
+    public static Bitboard addRook(int sq, Position pos, int from, int to, Bitboard out){
+        int r = occupancy(pos.rankOcc, RANK, sq, from, to), f = occupancy(pos.fileOcc, FILE, sq, from, to);
+        out.lo |= LINE_LO[RANK][r] | LINE_LO[FILE][f];
+        out.hi |= LINE_HI[RANK][r] | LINE_HI[FILE][f];
+        return out;
+    }
+
+    /**
+     * Computes fields attacked by a bishop (without the extra steps of a horse).
+     * @param sq position of the piece.
+     * @param pos position providing the occupancy.
+     * @param out bitboard to be overwritten.
+     * @return the out bitboard.
+     */
+    public static Bitboard bishop(int sq, Position pos, Bitboard out){
+        out.clearAll();
+        return addBishop(sq, pos, -1, -1, out);
+    }
+
+    /**
+     * Adds fields attacked by a bishop (without the extra steps of a horse) to a bitboard,
+     * as if a piece moved from one field to another.
+     * @param sq position of the piece.
+     * @param pos position providing the occupancy.
+     * @param from field left empty or -1.
+     * @param to field occupied or -1.
+     * @param out bitboard the attacked fields are added to.
+     * @return the out bitboard.
+     */
+    public static Bitboard addBishop(int sq, Position pos, int from, int to, Bitboard out){
+        int d = occupancy(pos.diagonalOcc, DIAGONAL, sq, from, to);
+        int a = occupancy(pos.antidiagonalOcc, ANTIDIAGONAL, sq, from, to);
+        out.lo |= LINE_LO[DIAGONAL][d] | LINE_LO[ANTIDIAGONAL][a];
+        out.hi |= LINE_HI[DIAGONAL][d] | LINE_HI[ANTIDIAGONAL][a];
+        return out;
+    }
+
+    /**
+     * Computes fields attacked by an unpromoted lance.
+     * @param side owner of the lance.
+     * @param sq position of the piece.
+     * @param pos position providing the occupancy.
+     * @param out bitboard to be overwritten.
+     * @return the out bitboard.
+     */
+    public static Bitboard lance(int side, int sq, Position pos, Bitboard out){
+        out.clearAll();
+        return addLance(side, sq, pos, -1, -1, out);
+    }
+
+    /**
+     * Adds fields attacked by an unpromoted lance to a bitboard, as if a piece moved from one field to another.
+     * @param side owner of the lance.
+     * @param sq position of the piece.
+     * @param pos position providing the occupancy.
+     * @param from field left empty or -1.
+     * @param to field occupied or -1.
+     * @param out bitboard the attacked fields are added to.
+     * @return the out bitboard.
+     */
+    public static Bitboard addLance(int side, int sq, Position pos, int from, int to, Bitboard out){
+        int f = occupancy(pos.fileOcc, FILE, sq, from, to);
+        out.lo |= LANCE_LO[side][f];
+        out.hi |= LANCE_HI[side][f];
+        return out;
+    }
+
+    /**
+     * Computes all the fields attacked by a piece, including steps and slides.
+     * @param code piece code (see {@link Position}).
+     * @param sq position of the piece.
+     * @param pos position providing the occupancy.
+     * @param out bitboard to be overwritten.
+     * @return the out bitboard.
+     */
+    public static Bitboard of(int code, int sq, Position pos, Bitboard out){
+        out.clearAll();
+        return add(code, sq, pos, -1, -1, out);
+    }
+
+    /**
+     * Adds all the fields attacked by a piece to a bitboard, as if a piece moved from one field to another.
+     * @param code piece code (see {@link Position}).
+     * @param sq position of the piece.
+     * @param pos position providing the occupancy.
+     * @param from field left empty or -1.
+     * @param to field occupied or -1.
+     * @param out bitboard the attacked fields are added to.
+     * @return the out bitboard.
+     */
+    public static Bitboard add(int code, int sq, Position pos, int from, int to, Bitboard out){
+        int pc = code & 15;
+        if(pc == PieceType.ROOK.getValue() || pc == (Position.PROMOTED | PieceType.ROOK.getValue()))
+            addRook(sq, pos, from, to, out);
+        else if(pc == PieceType.BISHOP.getValue() || pc == (Position.PROMOTED | PieceType.BISHOP.getValue()))
+            addBishop(sq, pos, from, to, out);
+        else if(pc == PieceType.LANCE.getValue())
+            return addLance(code >> Position.SIDE_SHIFT, sq, pos, from, to, out);
+        return out.or(STEP[code][sq]);
+    }
+
+    /**
+     * Returns fields reachable by a piece in a single step (without sliding).
+     * @param code piece code (see {@link Position}).
+     * @param sq position of the piece.
+     * @return shared, read-only bitboard.
+     */
+    public static Bitboard step(int code, int sq){
+        return STEP[code][sq];
+    }
+
+    /**
+     * Returns fields lying strictly between two fields on a common row, column or diagonal.
+     * @param a first field.
+     * @param b second field.
+     * @return shared, read-only bitboard, empty if the fields are not aligned or adjacent.
+     */
+    public static Bitboard between(int a, int b){
+        return BETWEEN[a][b];
+    }
+
+    private Attacks(){}
+}
@@ -0,0 +1,231 @@
+/**
+ * Shogi - a simple online multiplayer game of Japanese chess.
+ * Copyright (C) 2018 Tomasz Ciborski
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package pl.umk.mat.tomaszcib.GameLogic;
+
+/**
+ * A set of board fields (0-80) packed into two longs.<br><br>
+ * Fields 0-62 (rows a-g) are stored in {@link #lo} and fields 63-80 (rows h-i) in {@link #hi},
+ * so a single row of the board never spans both words. All the operations modify the bitboard in place,
+ * which lets the move generator work on a few preallocated instances without producing any garbage.
+ */
+public final class Bitboard {
+    /**
+     * First field stored in the {@link #hi} word.
+     */
+    public static final int SPLIT = 63;
+    /**
+     * All the fields stored in the {@link #lo} word.
+     */
+    public static final long LO_MASK = (1L << SPLIT) - 1;
+    /**
+     * All the fields stored in the {@link #hi} word.
+     */
+    public static final long HI_MASK = (1L << (81 - SPLIT)) - 1;
+    /**
+     * Fields 0-62.
+     */
+    public long lo;
+    /**
+     * Fields 63-80.
+     */
+    public long hi;
+
+    /**
+     * Creates an empty bitboard.
+     */
+    public Bitboard(){ }
+
+    /**
+     * Creates a bitboard of given words.
+     * @param lo fields 0-62.
+     * @param hi fields 63-80.
+     */
+    public Bitboard(long lo, long hi){
+        this.lo = lo;
+        this.hi = hi;
+    }
+
+    /**
+     * Adds a field to the set.
+     * @param sq field (0-80).
+     */
+    public void set(int sq){
+        if(sq < SPLIT) lo |= 1L << sq;
+        else hi |= 1L << (sq - SPLIT);
+    }
+
+    /**
+     * Removes a field from the set.
+     * @param sq field (0-80).
+     */
+    public void clear(int sq){
+        if(sq < SPLIT) lo &= ~(1L << sq);
+        else hi &= ~(1L << (sq - SPLIT));
+    }
+
+    /**
+     * Checks if a field belongs to the set.
+     * @param sq field (0-80).
+     * @return true if the field is set, false otherwise.
+     */
+    public boolean test(int sq){
+        if(sq < SPLIT) return (lo & (1L << sq)) != 0;
+        return (hi & (1L << (sq - SPLIT))) != 0;
+    }
+
+    /**
+     * Removes all the fields from the set.
+     */
+    public void clearAll(){
+        lo = 0;
+        hi = 0;
+    }
+
+    /**
+     * Overwrites the bitboard with given words.
+     * @param lo fields 0-62.
+     * @param hi fields 63-80.
+     * @return this bitboard.
+     */
+    public Bitboard set(long lo, long hi){
+        this.lo = lo;
+        this.hi = hi;
+        return this;
+    }
+
+    /**
+     * Overwrites the bitboard with another one.
+     * @param b source bitboard.
+     * @return this bitboard.
+     */
+    public Bitboard copy(Bitboard b){
+        lo = b.lo;
+        hi = b.hi;
+        return this;
+    }
+
+    /**
+     * Set union.
+     * @param b other bitboard.
+     * @return this bitboard.
+     */
+    public Bitboard or(Bitboard b){
+        lo |= b.lo;
+        hi |= b.hi;
+        return this;
+    }
+
+    /**
+     * Set intersection.
+     * @param b other bitboard.
+     * @return this bitboard.
+     */
+    public Bitboard and(Bitboard b){
+        lo &= b.lo;
+        hi &= b.hi;
+        return this;
+    }
+
+    /**
+     * Set difference.
+     * @param b bitboard of fields to be removed.
+     * @return this bitboard.
+     */
+    public Bitboard andNot(Bitboard b){
+        lo &= ~b.lo;
+        hi &= ~b.hi;
+        return this;
+    }
+
+    /**
+     * Set complement within the 81 fields of the board.
+     * @return this bitboard.
+     */
+    public Bitboard invert(){
+        lo = ~lo & LO_MASK;
+        hi = ~hi & HI_MASK;
+        return this;
+    }
+
+    /**
+     * Checks if the set is empty.
+     * @return true if no field is set.
+     */
+    public boolean isEmpty(){
+        return (lo | hi) == 0;
+    }
+
+    /**
+     * Checks if two sets have any common field.
+     * @param b other bitboard.
+     * @return true if the intersection is not empty.
+     */
+    public boolean intersects(Bitboard b){
+        return ((lo & b.lo) | (hi & b.hi)) != 0;
+    }
+
+    /**
+     * Returns number of fields in the set.
+     * @return number of fields in the set.
+     */
+    public int count(){
+        return Long.bitCount(lo) + Long.bitCount(hi);
+    }
+
+    /**
+     * Returns the lowest field in the set.
+     * @return the lowest field or -1 if the set is empty.
+     */
+    public int first(){
+        if(lo != 0) return Long.numberOfTrailingZeros(lo);
+        if(hi != 0) return SPLIT + Long.numberOfTrailingZeros(hi);
+        return -1;
+    }
+
+    /**
+     * Removes the lowest field from the set and returns it. Used for iterating over the set.
+     * @return the removed field or -1 if the set is empty.
+     */
+    public int pop(){
+        if(lo != 0){
+            int sq = Long.numberOfTrailingZeros(lo);
+            lo &= lo - 1;
+            return sq;
+        }
+        if(hi != 0){
+            int sq = SPLIT + Long.numberOfTrailingZeros(hi);
+            hi &= hi - 1;
+            return sq;
+        }
+        return -1;
+    }
+
+    /**
+     * DEBUG: converts the bitboard to a 9x9 grid.
+     * @return bitboard converted to a String.
+     */
+    public String toString(){
+        StringBuilder s = new StringBuilder();
+        for(int i = 0; i < 81; i++){
+            s.append(test(i) ? '1' : '.');
+            if(i % 9 == 8) s.append('\n');
+        }
+        return s.toString();
+    }
+}
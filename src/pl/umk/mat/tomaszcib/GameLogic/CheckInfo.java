@@ -0,0 +1,149 @@
+/**
+ * Shogi - a simple online multiplayer game of Japanese chess.
+ * Copyright (C) 2018 Tomasz Ciborski
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package pl.umk.mat.tomaszcib.GameLogic;
+
+/**
+ * Checks and pins of one side's king, computed once per position.<br><br>
+ * A move of a piece other than the king is legal if and only if its target field belongs to {@link #block}
+ * and, if the piece is pinned, to its {@link #pinRay}. A king move is legal if the target field is not attacked
+ * according to the attack counts of the position and does not lie behind the king on a checking line
+ * (see {@link #kingMayEnter(Position, int)}).
+ */
+public final class CheckInfo {
+    /**
+     * Enemy pieces checking the king.
+     */
+    public final Bitboard checkers = new Bitboard();
+    /**
+     * Fields a piece other than the king may move or be dropped to: all the fields if the king is not in check,
+     * the checking piece and the fields between it and the king if in a single check, none if in a double check.
+     */
+    public final Bitboard block = new Bitboard();
+    /**
+     * Own pieces which can not leave the line between the king and an enemy sliding piece.
+     */
+    public final Bitboard pinned = new Bitboard();
+    /**
+     * Fields a pinned piece may move to: the fields between the king and the pinning piece and the pinning piece
+     * itself. Indexed by the field of a pinned piece, other entries are undefined.
+     */
+    public final Bitboard[] pinRay = new Bitboard[81];
+    /**
+     * Fields next to the king lying behind it on the line of a checking sliding piece. They are not attacked
+     * yet, since the king itself blocks the line, but become attacked as soon as the king steps there.
+     */
+    public final Bitboard xray = new Bitboard();
+    /**
+     * Side the information was computed for (0 or 1).
+     */
+    public int side;
+    /**
+     * Field of the king or -1 if the side has no king.
+     */
+    public int kingSq = -1;
+
+    private final Bitboard snipers = new Bitboard();
+    private final Bitboard tmp = new Bitboard();
+
+    /**
+     * Creates an empty information object, to be filled by {@link #compute(Position, int)}.
+     */
+    public CheckInfo(){
+        for(int i = 0; i < 81; i++)
+            pinRay[i] = new Bitboard();
+    }
+
+    /**
+     * Computes checkers, block fields and pins of a side's king in one pass. Only the enemy sliding pieces
+     * which would attack the king on an empty board are looked at; one of them pins an own piece
+     * if it is the only piece standing in between.
+     * @param pos current position.
+     * @param side side of the king (0 or 1).
+     * @return this object.
+     */
+    public CheckInfo compute(Position pos, int side){
+        int enemy = 1 - side;
+        this.side = side;
+        kingSq = pos.kingSq[side];
+        checkers.clearAll();
+        pinned.clearAll();
+        xray.clearAll();
+        block.set(Bitboard.LO_MASK, Bitboard.HI_MASK);
+        if(kingSq == -1) return this;
+
+        pos.attackersTo(kingSq, enemy, checkers);
+        if(checkers.count() > 1) block.clearAll();
+        else if(!checkers.isEmpty()){
+            block.copy(Attacks.between(kingSq, checkers.first()));
+            block.set(checkers.first());
+        }
+        /* The field behind the king is attacked by a checking piece if the piece attacks it through the king */
+        snipers.copy(checkers);
+        for(int sq = snipers.pop(); sq != -1; sq = snipers.pop()){
+            int dr = Integer.signum(kingSq / 9 - sq / 9), dc = Integer.signum(kingSq % 9 - sq % 9);
+            int r = kingSq / 9 + dr, c = kingSq % 9 + dc;
+            if(r < 0 || r > 8 || c < 0 || c > 8) continue;
+            if(Attacks.add(pos.board[sq], sq, pos, kingSq, -1, tmp.set(0, 0)).test(r * 9 + c)) xray.set(r * 9 + c);
+        }
+
+        snipers.copy(Attacks.ROOK_RAY[kingSq]).and(pos.byType[PieceType.ROOK.getValue()]);
+        snipers.or(tmp.copy(Attacks.BISHOP_RAY[kingSq]).and(pos.byType[PieceType.BISHOP.getValue()]));
+        /* Lances attacking the king stand in front of it, so we look along the king's own lance ray */
+        snipers.or(tmp.copy(Attacks.LANCE_RAY[side][kingSq]).and(pos.byType[PieceType.LANCE.getValue()])
+                .andNot(pos.promoted));
+        snipers.and(pos.bySide[enemy]);
+        for(int sq = snipers.pop(); sq != -1; sq = snipers.pop()){
+            tmp.copy(Attacks.between(kingSq, sq)).and(pos.occupied);
+            if(tmp.count() != 1 || !tmp.intersects(pos.bySide[side])) continue;
+            int p = tmp.first();
+            pinned.set(p);
+            pinRay[p].copy(Attacks.between(kingSq, sq));
+            pinRay[p].set(sq);
+        }
+        return this;
+    }
+
+    /**
+     * Checks if the king is in check.
+     * @return true if at least one enemy piece checks the king.
+     */
+    public boolean inCheck(){
+        return !checkers.isEmpty();
+    }
+
+    /**
+     * Checks if the king may move to a field.
+     * @param pos position the information was computed for.
+     * @param to target field next to the king.
+     * @return true if the field is not attacked by the enemy, also after the king has left its field.
+     */
+    public boolean kingMayEnter(Position pos, int to){
+        return !pos.isAttacked(to, 1 - side) && !xray.test(to);
+    }
+
+    /**
+     * Checks a move of a piece other than the king against the block fields and pins.
+     * @param from field of the moving piece.
+     * @param to target field.
+     * @return true if the move does not leave the king in check.
+     */
+    public boolean allows(int from, int to){
+        return block.test(to) && (!pinned.test(from) || pinRay[from].test(to));
+    }
+}
@@ -23,6 +23,7 @@ import pl.umk.mat.tomaszcib.MainWindow;
 
 import javax.swing.*;
 import java.io.*;
+import java.util.Arrays;
 import java.util.Vector;
 
 import static java.lang.Math.abs;
@@ -53,7 +54,17 @@ public class CurrentBoard {
      * Data for both parties participating in the game. Has fixed size of 2.
      */
     public PlayerData[] pdata = new PlayerData[2];
+    /**
+     * Bitboard layer of the game, kept in sync with {@link #piece} and {@link #squarePieceId}
+     * by {@link #makeMove(int)}.
+     * Move generation works on this representation only.
+     */
+    public Position position = new Position();
     private MoveGenerator moveGenerator = new MoveGenerator();
+    private RepetitionTable repetitions = new RepetitionTable();
+    private final int[] moves = new int[600];
+    /* IDs of the pieces in the trays as bit sets, indexed by [player id][piece type] */
+    private final long[][] trayIds = new long[2][8];
     private int curPlayer = 1;
     /**
      * Information if the current game has ended. Possible values are:
@@ -74,6 +85,32 @@ public class CurrentBoard {
         return curPlayer;
     }
 
+    /**
+     * Returns the Zobrist key of the current position, covering pieces, promotions, trays and the side to move.
+     * Equal positions always have equal keys, so the key may be used for detecting repetitions or caching.
+     * @return 64-bit key of the position.
+     */
+    public long getKey(){
+        return position.getKey();
+    }
+
+    /**
+     * Checks if the current position ends the game by fourfold repetition (sennichite).
+     * @return one of the {@link RepetitionTable#getSennichite()} results.
+     */
+    public int getSennichite(){
+        return repetitions.getSennichite();
+    }
+
+    /**
+     * Returns the positions which have occurred in the game, the current one being the last.
+     * The table must not be modified by the caller.
+     * @return table of the positions of the game.
+     */
+    public RepetitionTable getRepetitions(){
+        return repetitions;
+    }
+
     private class RegenerateMovesThread extends Thread{
         public void run(){
             /* Timers handling */
@@ -90,51 +127,34 @@ public class CurrentBoard {
             }
 
             /* Move generation process */
-            for(int i = 0; i < 2; i++) {
-                ((King) piece[i]).clearSafeZone();
-                ((King) piece[i]).resetCheckCount();
-            }
-            Piece tmp = piece[7];
-            for(int i = 0; i < 40; i++)
-                piece[i].validMoves.clear();
-            for(int i = 2; i < 40; i++)
-                if(!piece[i].isInTray())
-                    moveGenerator.generateMoves(piece, pdata, squarePieceId, i);
-            for(int i = 0; i < 2; i++) {
-                moveGenerator.generateMoves(piece, pdata, squarePieceId, i);
-            }
-            for(int i = 2; i < 40; i++)
-                if(!piece[i].isInTray())
-                    moveGenerator.validateMoves(i);
-            for(int i = 0; i < 2; i++)
-                moveGenerator.generateDrops(i == 0 ? -1 : 1, pdata[i]);
-            for(int i = 2; i < 40; i++)
-                if(piece[i].isInTray())
-                    for(int j = 0; j < 81; j++)
-                        if((pdata[piece[i].getOwnKingId()].tray.drop[j] & (1 << piece[i].getType().getValue()) )!= 0)
-                            piece[i].validMoves.add(j);
+            generateValidMoves();
 
             /* Check if game has ended */
-
-            /*for(int i = 0; i < 81; i++){
-                System.out.printf("%3d", ((King)piece[0]).isKingSafe(i) ? 1 : 0);
-                if(i % 9 == 8) System.out.println();
-            }*/
+            int sennichite = repetitions.getSennichite();
             gameEnded = 2;
             for(int i = 0; i < 40; i++){
                 if(piece[i].getPlayer() != curPlayer) continue;
-                if(!piece[i].validMoves.isEmpty()){
+                if(!getValidMoves(i).isEmpty()){
                     gameEnded = 0;
                     break;
                 }
             }
             if(gameEnded == 2) {
-                if (((King) piece[curPlayer == -1 ? 0 : 1]).isCheck()) {
+                if (position.inCheck()) {
                     gameEnded = curPlayer;
                     MainWindow.canvas.setCheckmatePos(piece[curPlayer == -1 ? 0 : 1].getPos());
                 }
                 pdata[curPlayerId].timer.suspend();
             }
+            /* Fourfold repetition ends the game with a draw, unless one of the players
+            has been checking all the time - then that player loses */
+            else if(sennichite != RepetitionTable.NONE){
+                if(sennichite == RepetitionTable.DRAW) gameEnded = 2;
+                else if(sennichite == RepetitionTable.PERPETUAL_CHECK_BY_MOVER) gameEnded = -curPlayer;
+                else gameEnded = curPlayer;
+                MainWindow.canvas.setCheckmatePos(-1);
+                pdata[curPlayerId].timer.suspend();
+            }
             else pdata[curPlayerId].timer.resume();
             MainWindow.setWhoseMove();
         }
@@ -159,8 +179,8 @@ public class CurrentBoard {
             oos.writeObject(piece);
             oos.writeObject(history);
             oos.writeObject(squarePieceId);
-            oos.writeObject(pdata[0].tray.pieceId);
-            oos.writeObject(pdata[1].tray.pieceId);
+            oos.writeObject(pdata[0].tray.pack());
+            oos.writeObject(pdata[1].tray.pack());
             oos.writeObject(pdata[0].timerSecondElapsed);
             oos.writeObject(pdata[1].timerSecondElapsed);
             oos.writeInt(curPlayer);
@@ -182,15 +202,21 @@ public class CurrentBoard {
             piece = (Piece[])ois.readObject();
             history = (Vector<HistoryItem>)ois.readObject();
             squarePieceId = (int[])ois.readObject();
-            pdata[0].tray.pieceId = (Vector<Integer>)ois.readObject();
-            pdata[1].tray.pieceId = (Vector<Integer>)ois.readObject();
+            pdata[0].tray.unpack((long)ois.readObject());
+            pdata[1].tray.unpack((long)ois.readObject());
             pdata[0].timerSecondElapsed = (int)ois.readObject();
             pdata[1].timerSecondElapsed = (int)ois.readObject();
             curPlayer = ois.readInt();
             //System.out.println(curPlayer);
+            position.setFromPieces(piece, curPlayer);
+            resetTrayIds();
+            /* Drops are not part of the stream, so a partner joining the game gets them from here */
+            generateValidMoves();
             MainWindow.panel.b.model.clear();
+            repetitions.clear();
             int i = 0;
             for(HistoryItem hi : history) {
+                repetitions.push(hi.getKey(), hi.isCheck());
                 MainWindow.panel.b.model.addElement((i == 0 ? "" : i + ". ") + hi.toPanel(i == 0));
                 i++;
             }
@@ -209,7 +235,8 @@ public class CurrentBoard {
 
     /**
      * This method executes a single move of a piece within the game.
-     * @param pieceId an ID of moving piece (0-39)
+     * @param pieceId an ID of moving piece (0-39). Any piece of the right type may be given for a drop,
+     *                the dropped one is chosen by {@link #getTrayPieceId(int, int)}.
      * @param from source field (0-80 if moving on the board or other if dropping from tray)
      * @param to target field
      * @param shouldPromote flag indicating if a piece should be promoted after executing the move.
@@ -220,57 +247,150 @@ public class CurrentBoard {
      */
     public boolean execMove(int pieceId, int from, int to, boolean shouldPromote){
         Piece p = piece[pieceId];
-        Piece target;
-        boolean involvesTray = false;
         boolean oldPromoted = p.isPromoted();
         boolean wasInTray = p.isInTray();
-        boolean captures = false;
+        boolean captures = !wasInTray && squarePieceId[to] != -1;
+        int type = p.getType().getValue();
+        if(wasInTray){
+            pieceId = getTrayPieceId(p.getPlayer(), type);
+            p = piece[pieceId];
+            makeMove(Move.drop(type, to), pieceId);
+        }
+        else
+            makeMove(Move.of(from, to, type, promotes(p, from, to, shouldPromote)), pieceId);
+
+        /* Update the history registry */
+        history.add(new HistoryItem(piece, type, oldPromoted, from, to,
+                !oldPromoted && p.isPromoted(), wasInTray && !p.isInTray() ,captures,
+                position.getKey(), position.inCheck()));
+        return wasInTray || captures;
+    }
+
+    /* Promotion handling. Pawns and lances always promote in the last row,
+    knights - in the last two rows. */
+    private boolean promotes(Piece p, int from, int to, boolean shouldPromote){
+        if(p.isPromoted()) return false;
+        if((p.isPromotable(to) || p.isPromotable(from)) && shouldPromote)
+            return true;
+        if (((p.getPlayer() == -1 && to < 18) || (p.getPlayer() == 1 && to > 62))
+                && p.getType() ==  PieceType.KNIGHT)
+            return true;
+        return ((p.getPlayer() == -1 && to < 9) || (p.getPlayer() == 1 && to > 71))
+                && (p.getType() ==  PieceType.PAWN || p.getType() == PieceType.LANCE);
+    }
+
+    /**
+     * Makes a move on the board, the trays and the bitboard layer without registering it in the {@link #history}.
+     * The move must be legal, including the promotion flag of forced promotions. Dropped piece is taken
+     * from the tray of the side to move.<br><br>
+     * Neither the turn indicator ({@link #getCurPlayer()}) nor the lists of valid moves are updated,
+     * see {@link #updateMoves()}. The method works in constant time and allocates nothing,
+     * so it is suitable for searching and validation of moves.
+     * @param move packed move (see {@link Move}).
+     * @return undo information for {@link #unmakeMove(long)}.
+     * @throws IllegalArgumentException if there is no piece to be moved or dropped.
+     */
+    public long makeMove(int move){
+        int pieceId;
+        if(Move.isDrop(move))
+            pieceId = getTrayPieceId(Position.playerOf(position.getSideToMove()), Move.type(move));
+        else pieceId = squarePieceId[Move.from(move)];
+        if(pieceId == -1)
+            throw new IllegalArgumentException("No piece for move " + Move.toString(move));
+        return makeMove(move, pieceId);
+    }
+
+    /**
+     * Chooses a piece of a type to be dropped from a player's tray. The piece of the lowest ID is chosen,
+     * so both players of a network game always drop the same piece, whatever order the pieces were captured in.
+     * Works in constant time.
+     * @param player -1 or 1.
+     * @param type {@link PieceType} value.
+     * @return ID of the piece or -1 if there is no such piece in the tray.
+     */
+    public int getTrayPieceId(int player, int type){
+        long ids = trayIds[player == -1 ? 0 : 1][type];
+        return ids == 0 ? -1 : Long.numberOfTrailingZeros(ids);
+    }
+
+    /* Collects the IDs of the pieces in the trays, after the pieces have been replaced */
+    private void resetTrayIds(){
+        for(long[] ids : trayIds)
+            Arrays.fill(ids, 0);
+        for(int i = 0; i < 40; i++)
+            if(piece[i] != null && piece[i].isInTray())
+                trayIds[piece[i].getPlayer() == -1 ? 0 : 1][piece[i].getType().getValue()] |= 1L << i;
+    }
+
+    /* Undo information of the position is extended with the moving piece ID (bits 40-45)
+    and the captured piece ID (bits 46-51) */
+    private long makeMove(int move, int pieceId){
+        Piece p = piece[pieceId];
         int playerId = p.getPlayer() == -1 ? 0 : 1;
+        int to = Move.to(move), capturedId = 0;
+        long undo = position.makeMove(move);
+        repetitions.push(position.getKey(), position.inCheck());
         /* Dropping piece from tray */
-        if(p.isInTray()){
-            for(int i = 0; i < pdata[playerId].tray.pieceId.size(); i++)
-                if(pdata[playerId].tray.pieceId.get(i) == pieceId){
-                    involvesTray = true;
-                    pdata[playerId].tray.pieceId.remove(i);
-                    break;
-                }
-            squarePieceId[to] = pieceId;
+        if(Move.isDrop(move)){
+            pdata[playerId].tray.count[Move.type(move)]--;
+            trayIds[playerId][Move.type(move)] &= ~(1L << pieceId);
             p.setInTray(false);
-            p.setPos(to);
         }
         /* Move on a board */
         else{
             /* If we capture enemy piece */
             if(squarePieceId[to] != -1){
-                target = piece[squarePieceId[to]];
+                capturedId = squarePieceId[to];
+                Piece target = piece[capturedId];
                 target.setPromoted(false);
                 target.setPlayer(p.getPlayer());
-                pdata[playerId].tray.pieceId.add(squarePieceId[to]);
-                target.setPos(81 + squarePieceId[to]);
+                pdata[playerId].tray.count[target.getType().getValue()]++;
+                trayIds[playerId][target.getType().getValue()] |= 1L << capturedId;
+                target.setPos(Piece.IN_TRAY);
                 target.setInTray(true);
-                involvesTray = true;
-                captures = true;
             }
-            squarePieceId[to] = pieceId;
-            squarePieceId[from] = -1;
-            p.setPos(to);
-            /* Promotion handling. Pawns and lances always promote in the last row,
-            knights - in the last two rows.
-             */
-            if((p.isPromotable(to) || p.isPromotable(from)) && shouldPromote)
-                p.setPromoted(true);
-            if (((p.getPlayer() == -1 && to < 18) || (p.getPlayer() == 1 && to > 62))
-                    && p.getType() ==  PieceType.KNIGHT)
-                p.setPromoted(true);
-            else if (((p.getPlayer() == -1 && to < 9) || (p.getPlayer() == 1 && to > 71))
-                    && (p.getType() ==  PieceType.PAWN || p.getType() == PieceType.LANCE))
-                p.setPromoted(true);
+            squarePieceId[Move.from(move)] = -1;
+            if(Move.isPromotion(move)) p.setPromoted(true);
         }
+        squarePieceId[to] = pieceId;
+        p.setPos(to);
+        return undo | (long)pieceId << 40 | (long)capturedId << 46;
+    }
 
-        /* Update the history registry */
-        history.add(new HistoryItem(piece, p.getType().getValue(), oldPromoted, from, to,
-                !oldPromoted && p.isPromoted(), wasInTray && !p.isInTray() ,captures));
-        return involvesTray;
+    /**
+     * Takes back a move made with {@link #makeMove(int)}, restoring the board, trays, promotion flags
+     * and the check state in constant time. Moves must be taken back in the reverse order.
+     * @param undo value returned by {@link #makeMove(int)}.
+     */
+    public void unmakeMove(long undo){
+        int move = (int)undo, to = Move.to(move);
+        int pieceId = (int)(undo >>> 40) & 63, capturedId = (int)(undo >>> 46) & 63;
+        int captured = Position.captured(undo);
+        Piece p = piece[pieceId];
+        int playerId = p.getPlayer() == -1 ? 0 : 1;
+        position.unmakeMove(undo);
+        repetitions.pop();
+        squarePieceId[to] = -1;
+        if(Move.isDrop(move)){
+            pdata[playerId].tray.count[Move.type(move)]++;
+            trayIds[playerId][Move.type(move)] |= 1L << pieceId;
+            p.setInTray(true);
+            p.setPos(Piece.IN_TRAY);
+            return;
+        }
+        if(captured != Position.EMPTY){
+            Piece target = piece[capturedId];
+            pdata[playerId].tray.count[captured & 7]--;
+            trayIds[playerId][captured & 7] &= ~(1L << capturedId);
+            target.setPlayer(-p.getPlayer());
+            target.setPromoted((captured & Position.PROMOTED) != 0);
+            target.setInTray(false);
+            target.setPos(to);
+            squarePieceId[to] = capturedId;
+        }
+        if(Move.isPromotion(move)) p.setPromoted(false);
+        squarePieceId[Move.from(move)] = pieceId;
+        p.setPos(Move.from(move));
     }
 
     /**
@@ -330,7 +450,120 @@ public class CurrentBoard {
             squarePieceId[pos] = i;
         }
         curPlayer = startingPlayer;
-        history.add(new HistoryItem(piece,0,false,0,0,false,false,false));
+        position.setFromPieces(piece, -startingPlayer);
+        resetTrayIds();
+        history.add(new HistoryItem(piece,0,false,0,0,false,false,false, position.getKey(), position.inCheck()));
+        repetitions.push(position.getKey(), position.inCheck());
+    }
+
+    /* Bare board with no pieces and no GUI bindings */
+    private CurrentBoard(){
+        pdata[0] = new PlayerData();
+        pdata[1] = new PlayerData();
+        pdata[0].setId(0);
+        pdata[1].setId(1);
+    }
+
+    /**
+     * Creates a board of a position given in SFEN notation, without any GUI bindings. Used by tools working
+     * on the game logic only, eg. perft or problem solvers. Pieces get their IDs in the same order as in
+     * a new game. Pieces not present in the notation are put into the tray of the player not to move,
+     * as it is usual for mate problems. {@link #getCurPlayer()} returns the player to move.
+     * @param sfen position in SFEN notation, containing both kings.
+     * @return new board.
+     * @throws IllegalArgumentException if the notation is malformed or contains too many pieces of some type.
+     */
+    public static CurrentBoard fromSfen(String sfen){
+        CurrentBoard b = new CurrentBoard();
+        Position pos = new Position(sfen);
+        int[] firstId = {0, 2, 6, 10, 14, 36, 38, 18};
+        int[] lastId = {2, 6, 10, 14, 18, 38, 40, 36};
+        int defender = 1 - pos.getSideToMove();
+        if(pos.kingSq[0] == -1 || pos.kingSq[1] == -1)
+            throw new IllegalArgumentException("Both kings are required: " + sfen);
+        for(int i = 0; i < 81; i++){
+            int code = pos.board[i];
+            b.squarePieceId[i] = -1;
+            if(code == Position.EMPTY) continue;
+            int type = code & 7, player = Position.playerOf(code >> Position.SIDE_SHIFT);
+            int id = type == 0 ? (player == -1 ? 0 : 1) : firstId[type]++;
+            if(id >= lastId[type] || b.piece[id] != null)
+                throw new IllegalArgumentException("Too many pieces of type " + PieceType.valueOf(type) + ": " + sfen);
+            b.piece[id] = type == 0 ? new King(player, i) : new Piece(player, PieceType.valueOf(type), i);
+            b.piece[id].setPromoted((code & Position.PROMOTED) != 0);
+            b.squarePieceId[i] = id;
+        }
+        for(int type = 1; type < 8; type++){
+            if(pos.hand[0][type] + pos.hand[1][type] > lastId[type] - firstId[type])
+                throw new IllegalArgumentException("Too many pieces of type " + PieceType.valueOf(type) + ": " + sfen);
+            for(int j = 0; j < pos.hand[1 - defender][type]; j++)
+                b.addToTray(1 - defender, type, firstId[type]++);
+            while(firstId[type] < lastId[type])
+                b.addToTray(defender, type, firstId[type]++);
+        }
+        b.curPlayer = Position.playerOf(pos.getSideToMove());
+        b.position.setFromPieces(b.piece, b.curPlayer);
+        b.resetTrayIds();
+        b.history.add(new HistoryItem(b.piece,0,false,0,0,false,false,false,
+                b.position.getKey(), b.position.inCheck()));
+        b.repetitions.push(b.position.getKey(), b.position.inCheck());
+        return b;
+    }
+
+    private void addToTray(int side, int type, int id){
+        piece[id] = new Piece(Position.playerOf(side), PieceType.valueOf(type), Piece.IN_TRAY);
+        piece[id].setInTray(true);
+        pdata[side].tray.count[type]++;
+    }
+
+    /**
+     * Regenerates lists of valid moves of all the pieces (see {@link Piece#validMoves}) and valid drops
+     * of the trays (see {@link PlayerData.Tray#validDrops}) synchronously. Only the pieces of the player to move
+     * in the {@link #position} get any moves. Drops are generated once per piece type, not per piece.
+     */
+    public void generateValidMoves(){
+        int n = moveGenerator.generateLegalMoves(position, moves);
+        for(int i = 0; i < 40; i++)
+            piece[i].validMoves.clear();
+        for(int i = 0; i < 8; i++){
+            pdata[0].tray.validDrops[i].clear();
+            pdata[1].tray.validDrops[i].clear();
+        }
+        MoveList[] drops = pdata[position.getSideToMove()].tray.validDrops;
+        for(int i = 0; i < n; i++){
+            /* Promotion is chosen by the player, so both variants of a move give one target field */
+            int move = moves[i] & ~Move.PROMOTE;
+            if(Move.isDrop(move)){
+                drops[Move.type(move)].add(move);
+                continue;
+            }
+            MoveList list = piece[squarePieceId[Move.from(move)]].validMoves;
+            if(list.isEmpty() || list.get(list.size() - 1) != move)
+                list.add(move);
+        }
+    }
+
+    /**
+     * Returns valid moves of a piece, as generated by {@link #generateValidMoves()}. Pieces in a tray
+     * share the list of drops of their type.
+     * @param id piece ID.
+     * @return list of packed moves, must not be modified.
+     */
+    public MoveList getValidMoves(int id){
+        Piece p = piece[id];
+        if(p.isInTray()) return pdata[Position.sideOf(p.getPlayer())].tray.validDrops[p.getType().getValue()];
+        return p.validMoves;
+    }
+
+    /**
+     * Generates all the legal moves of the player to move in the current position, including both variants
+     * of optional promotions. Unlike {@link #updateMoves()}, this works synchronously and does not touch
+     * the lists of valid moves of the pieces.
+     * @param moves output array of packed moves (see {@link Move}), 600 entries are always enough.
+     * @return number of generated moves.
+     */
+    public int generateLegalMoves(int[] moves){
+        return moveGenerator.generateLegalMoves(position, moves);
     }
 
     /**
@@ -22,7 +22,6 @@ import pl.umk.mat.tomaszcib.GuiAssets.Local;
 
 import java.io.Serializable;
 import java.util.Hashtable;
-import java.util.Vector;
 
 /**
  * Data type class for {@link CurrentBoard#history} record. A single HistoryItem contains information on exactly one performed move,
@@ -37,12 +36,14 @@ public class HistoryItem implements Serializable{
      */
     public Hashtable<Byte, Byte> board = new Hashtable<>();
     /**
-     * Two vectors indicating what pieces are in players' trays.
+     * Pieces in players' trays, packed with {@link PlayerData.Tray#pack()}.
      */
-    public Vector<Byte>[] tray = new Vector[2];
+    public long[] tray = new long[2];
     private int moveFrom, moveTo;
     private boolean promotion, drop, capture;
     private byte pieceType;
+    private long key;
+    private boolean check;
 
     /**
      * Constructor for a new HistoryItem entry.<br><br>
@@ -54,8 +55,11 @@ public class HistoryItem implements Serializable{
      * @param promotion if a piece promoted after a move.
      * @param drop if piece is dropped from a tray.
      * @param capture if piece captures other piece during a move.
+     * @param key Zobrist key of the position after a move (see {@link Position#getKey()}).
+     * @param check if the move gives check.
      */
-    HistoryItem(Piece[] p, int pieceType, boolean isPromoted, int moveFrom, int moveTo, boolean promotion, boolean drop, boolean capture){
+    HistoryItem(Piece[] p, int pieceType, boolean isPromoted, int moveFrom, int moveTo, boolean promotion, boolean drop,
+                boolean capture, long key, boolean check){
         this.pieceType = (byte)pieceType;
         if(isPromoted) this.pieceType |= 128;
         this.capture = capture;
@@ -63,17 +67,33 @@ public class HistoryItem implements Serializable{
         this.moveTo = moveTo;
         this.promotion = promotion;
         this.drop = drop;
-        tray[0] = new Vector<>();
-        tray[1] = new Vector<>();
+        this.key = key;
+        this.check = check;
         for(Piece a : p){
             if(a == null) continue;
             if(a.isInTray())
-                tray[a.getOwnKingId()].add(pieceToByte(a));
+                tray[a.getOwnKingId()] += 1L << (8 * a.getType().getValue());
             else
                 board.put((byte)a.getPos(), pieceToByte(a));
         }
     }
 
+    /**
+     * Returns the Zobrist key of the position after the move.
+     * @return 64-bit key of the position.
+     */
+    public long getKey(){
+        return key;
+    }
+
+    /**
+     * Checks if the move gave check.
+     * @return true if the enemy king was attacked after the move.
+     */
+    public boolean isCheck(){
+        return check;
+    }
+
     private byte pieceToByte(Piece a){
         byte b = 0;
         b |= a.getType().getValue();
@@ -106,11 +126,8 @@ public class HistoryItem implements Serializable{
         for(byte b: board.keySet())
             s += (b + " " + board.get(b) + "| ");
         s += "\n";
-        for(int i = 0; i < 2; i++) {
-            for (int b : tray[i])
-                s += (b + " ");
-            s += "\n";
-        }
+        for(int i = 0; i < 2; i++)
+            s += (Long.toHexString(tray[i]) + "\n");
         return s;
     }
 
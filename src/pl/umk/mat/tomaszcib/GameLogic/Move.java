@@ -0,0 +1,150 @@
+/**
+ * Shogi - a simple online multiplayer game of Japanese chess.
+ * Copyright (C) 2018 Tomasz Ciborski
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package pl.umk.mat.tomaszcib.GameLogic;
+
+/**
+ * Helper functions for moves packed into a single int.<br><br>
+ * Layout of the bits:
+ * <ul>
+ *     <li><b>0-6:</b> target field.</li>
+ *     <li><b>7-13:</b> source field (0 for drops).</li>
+ *     <li><b>14:</b> the piece promotes.</li>
+ *     <li><b>15:</b> the piece is dropped from a tray.</li>
+ *     <li><b>16-18:</b> {@link PieceType} value of the moving (or dropped) piece.</li>
+ *     <li><b>19:</b> the move captures an enemy piece. The flag is informative only, it is not needed
+ *     for making the move.</li>
+ * </ul>
+ * A packed move never equals {@link #NONE}, since source and target fields of a move always differ.
+ */
+public final class Move {
+    /**
+     * No move.
+     */
+    public static final int NONE = 0;
+    /**
+     * Promotion flag.
+     */
+    public static final int PROMOTE = 1 << 14;
+    /**
+     * Drop flag.
+     */
+    public static final int DROP = 1 << 15;
+    /**
+     * Capture flag.
+     */
+    public static final int CAPTURE = 1 << 19;
+
+    /**
+     * Packs a move of a piece on the board.
+     * @param from source field.
+     * @param to target field.
+     * @param type {@link PieceType} value of the moving piece.
+     * @param promote if the piece promotes.
+     * @return packed move.
+     */
+    public static int of(int from, int to, int type, boolean promote){
+        return to | from << 7 | (promote ? PROMOTE : 0) | type << 16;
+    }
+
+    /**
+     * Packs a drop of a piece from a tray.
+     * @param type {@link PieceType} value of the dropped piece.
+     * @param to target field.
+     * @return packed move.
+     */
+    public static int drop(int type, int to){
+        return to | DROP | type << 16;
+    }
+
+    /**
+     * Returns the source field of a move.
+     * @param move packed move.
+     * @return source field (0 for drops).
+     */
+    public static int from(int move){
+        return move >> 7 & 127;
+    }
+
+    /**
+     * Returns the target field of a move.
+     * @param move packed move.
+     * @return target field.
+     */
+    public static int to(int move){
+        return move & 127;
+    }
+
+    /**
+     * Returns type of the moving piece.
+     * @param move packed move.
+     * @return {@link PieceType} value.
+     */
+    public static int type(int move){
+        return move >> 16 & 7;
+    }
+
+    /**
+     * Checks if the moving piece promotes.
+     * @param move packed move.
+     * @return true if the piece promotes.
+     */
+    public static boolean isPromotion(int move){
+        return (move & PROMOTE) != 0;
+    }
+
+    /**
+     * Checks if the move is a drop.
+     * @param move packed move.
+     * @return true if the piece is dropped from a tray.
+     */
+    public static boolean isDrop(int move){
+        return (move & DROP) != 0;
+    }
+
+    /**
+     * Checks if the move captures an enemy piece.
+     * @param move packed move.
+     * @return true if the capture flag is set.
+     */
+    public static boolean isCapture(int move){
+        return (move & CAPTURE) != 0;
+    }
+
+    /**
+     * Converts a field to the USI notation, eg. field 0 is "9a" and field 80 is "1i".
+     * @param sq field (0-80).
+     * @return field in the USI notation.
+     */
+    public static String squareToString(int sq){
+        return "" + (char)('9' - sq % 9) + (char)('a' + sq / 9);
+    }
+
+    /**
+     * Converts a move to the USI notation, eg. "7g7f", "8h2b+" or "P*5e".
+     * @param move packed move.
+     * @return move in the USI notation.
+     */
+    public static String toString(int move){
+        if(isDrop(move))
+            return Position.SFEN_LETTERS.charAt(type(move)) + "*" + squareToString(to(move));
+        return squareToString(from(move)) + squareToString(to(move)) + (isPromotion(move) ? "+" : "");
+    }
+
+    private Move(){}
+}
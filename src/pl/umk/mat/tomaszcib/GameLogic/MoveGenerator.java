@@ -18,497 +18,424 @@
 
 package pl.umk.mat.tomaszcib.GameLogic;
 
-import static java.lang.Math.abs;
-
 /**
  * Class used for generating and validating moves for various in-game pieces, either on the board or the trays.
+ * All the work is done on the bitboard layer of the game (see {@link Position}).<br><br>
+ * The generator never changes the position it works on. Checks and pins of the king are computed once
+ * per position (see {@link CheckInfo}), so a move of a piece other than the king is checked with two mask tests
+ * and a king move - with the attack counts maintained by the position. Buffers used while generating are kept in the instance,
+ * so a single instance must be confined to one thread, but any number of instances (eg. one per search thread)
+ * may generate moves of the same position at once. Neither the position nor the {@link Piece} objects
+ * of the game are changed, all the methods write to the supplied output only.
  */
 public class MoveGenerator {
 
-    private int[] squarePieceId = new int[81];
-
-    private Piece[] piece = new Piece[40];
-    //private PlayerData[] pdata = new PlayerData[2];
-    byte[] drop = new byte[81];
-    Piece p;
-    private int movId;
-    private int enemyKing;
+    private final Bitboard targets = new Bitboard();
+    private final CheckInfo checks = new CheckInfo();
+    private final CheckInfo enemyChecks = new CheckInfo();
+    private final Bitboard mask = new Bitboard();
+    private final Bitboard tmp = new Bitboard();
+    private final Bitboard pawns = new Bitboard();
+    private final Bitboard lances = new Bitboard();
+    private final Bitboard knights = new Bitboard();
+    private final Bitboard movers = new Bitboard();
+    private final Bitboard attackers = new Bitboard();
+    private final int[] variants = new int[2];
+    /* Fields from which a piece of the side to move checks the enemy king, indexed by code & 15 */
+    private final Bitboard[] checkSquares = new Bitboard[16];
+    /* Own pieces standing alone between an own sliding piece and the enemy king, with the lines they stand on */
+    private final Bitboard discoverers = new Bitboard();
+    private final Bitboard[] discoveryRay = new Bitboard[81];
+    private final Bitboard snipers = new Bitboard();
 
-    /* Checks if the field has ally piece */
-    private boolean hasAlly(int i){
-        if(i >= 81 || i < 0) return true;
-        if(squarePieceId[i] == -1) return false;
-        return p.getPlayer() == piece[squarePieceId[i]].getPlayer();
-    }
-    /* Checks if the field has enemy piece */
-    private boolean hasEnemy(int i){
-        if(i >= 81 || i < 0) return false;
-        if(squarePieceId[i] == -1) return false;
-        return p.getPlayer() != piece[squarePieceId[i]].getPlayer();
-    }
-    /* Checks if a and b are not separated by a board edge. */
-    private boolean isNotEdge(int a, int b){
-        if ((a % 9 == 0 && b % 9 == 8 ) || (b % 9 == 0 && a % 9 == 8)
-                || (a < 9 && b < 0) || (a > 71 && b > 80))
-            return false;
-        return true;
+    /**
+     * Creates a generator with its own buffers.
+     */
+    public MoveGenerator(){
+        for(int i = 0; i < checkSquares.length; i++)
+            checkSquares[i] = new Bitboard();
+        for(int i = 0; i < 81; i++)
+            discoveryRay[i] = new Bitboard();
     }
 
-    /* Checks if we can mark a move from a to b as possibly valid */
-    private boolean addIfValid(int a, int b, int mustBeRow){
-        /*if(p.getType() == PieceType.GOLDEN_GENERAL && p.getPlayer() == -1){
-            System.out.printf("%d -> " + ownKingChecked(piece[movId].getPos(), b, (p.getType()).getValue()), b);
-            System.out.println();
-        }*/
-        if(a == b || b / 9 != mustBeRow || hasAlly(b)
-                || ownKingChecked(piece[movId].getPos(), b, (p.getType()).getValue())) {
-            if(hasAlly(b) && b / 9 == mustBeRow) ((King) piece[enemyKing]).setUnsafe(b);
-            return false;
-        }
-        if(isNotEdge(a,b)) {
-            p.validMoves.add(b);
-            ((King) piece[enemyKing]).setUnsafe(b);
-            /*if(hasEnemy(b) && squarePieceId[b] == enemyKing)
-                ((King) piece[enemyKing]).addCheck();*/
-            if(piece[enemyKing].getPos() == b) {
-                ((King) piece[enemyKing]).addCheck(p.getPos());
-                //System.out.println("Check from: " + p.getPos());
-            }
-        }
+    /**
+     * Checks if dropping a pawn in front of the enemy king would checkmate it (uchifuzume), which is not allowed.
+     * The pawn checks the king from an adjacent field, so the check can only be answered by capturing the pawn
+     * or moving the king away. The test uses the attack counts of the position and the enemy pins,
+     * the position is not changed.
+     * @param pos current position.
+     * @param side side dropping the pawn (0 or 1).
+     * @param sq field in front of the enemy king, must be empty.
+     * @return true if the drop would be a checkmate.
+     */
+    public boolean isPawnDropMate(Position pos, int side, int sq){
+        int enemy = 1 - side, k = pos.kingSq[enemy];
+        /* The king captures an undefended pawn */
+        if(!pos.isAttacked(sq, side)) return false;
+        /* The king escapes to a field which is not attacked, also after the pawn blocks lines going through it.
+        The king itself never blocks an attack here, since it is not in check before the drop. */
+        attackers.copy(Attacks.KING[enemy][k]).andNot(pos.bySide[enemy]);
+        attackers.clear(sq);
+        for(int i = attackers.pop(); i != -1; i = attackers.pop())
+            if(!pos.isAttacked(i, side) || pos.attackersTo(i, side, -1, sq, tmp).isEmpty()) return false;
+        /* Another piece captures the pawn without uncovering the king. The pawn only adds an obstacle,
+        so the pins of the position before the drop hold. */
+        enemyChecks.compute(pos, enemy);
+        pos.attackersTo(sq, enemy, attackers).clear(k);
+        for(int i = attackers.pop(); i != -1; i = attackers.pop())
+            if(enemyChecks.allows(i, sq)) return false;
         return true;
     }
 
-    /* Checks if our movement will leave our king in check */
-    private boolean ownKingChecked(int a, int b, int movingPieceId){
-        int tmp, chk, dir, row, column, posKing;
-        /* If we move a king, we need to check if we'll end up in a safe zone */
-        if(movingPieceId == 0){
-            int typeArr[];
-            posKing = a;
-            dir = -piece[movingPieceId].getPlayer();
-            if(!((King) piece[movId]).isKingSafe(b)) return true;
-            for(int i = -1; i < 2; i++){
-                if(hasEnemy(b+i) && piece[squarePieceId[b+i]].getType() == PieceType.KING)
-                    return true;
-                if(hasEnemy(b+9+i) && piece[squarePieceId[b+9+i]].getType() == PieceType.KING)
-                    return true;
-                if(hasEnemy(b-9+i) && piece[squarePieceId[b-9+i]].getType() == PieceType.KING)
-                    return true;
-            }
-            return false;
-        }
-        /* If other piece - we need to check if we uncovered our king */
-        else posKing = piece[p.getOwnKingId()].getPos();
-        /* Horizontal uncover - we seek for enemy rook in the row */
-        if(a/9 == posKing/9 && b/9 != posKing/9){
-            dir = (a%9 > posKing%9 ? 1 : -1);
-                tmp = posKing;
-                row = a / 9;
-                while ((tmp + dir) / 9 == row) {
-                    chk = tmp + dir;
-                    if (hasAlly(chk) && chk != a) break;
-                    else if(hasEnemy(chk) && piece[squarePieceId[chk]].getType() != PieceType.ROOK) break;
-                    else if (hasEnemy(chk)
-                            && piece[squarePieceId[chk]].getType() == PieceType.ROOK)
-                        return true;
-                    tmp += dir;
-                }
-        }
-        /* Vertical uncover - we seek for enemy rook or lance in the column*/
-        else if(a%9 == posKing%9 && b%9 != posKing%9){
-            dir = (a/9 > posKing/9 ? 1 : -1);
-                tmp = posKing;
-                column = a % 9;
-                while ((tmp + 9 * dir) >= 0 && (tmp + 9 * dir) < 81) {
-                    chk = tmp + 9 * dir;
-                    if (hasAlly(chk) && chk != a) break;
-                    else if(hasEnemy(chk) && (piece[squarePieceId[chk]].getType() != PieceType.ROOK
-                            || (piece[squarePieceId[chk]].getType() != PieceType.LANCE &&
-                        piece[squarePieceId[chk]].isPromoted()))) break;
-                    else if (hasEnemy(chk)
-                            && (piece[squarePieceId[chk]].getType() == PieceType.ROOK ||
-                            (dir == -piece[squarePieceId[chk]].getPlayer()
-                                    && piece[squarePieceId[chk]].getType() == PieceType.LANCE
-                            && !piece[squarePieceId[chk]].isPromoted())))
-                        return true;
-                    tmp += (9 * dir);
-                }
-        }
+    /* Computes fields where pieces can be dropped: mask for any piece, lances, knights and pawns.
+    Checks must be computed for the side. */
+    private void computeDrops(Position pos, int side){
+        int pawn = PieceType.PAWN.getValue();
+        int squareFrontEnemyKing = pos.kingSq[1 - side] == -1 ? -1 : pos.kingSq[1 - side] + (side == 0 ? 9 : -9);
 
-        /* Diagonal uncover - we seek for enemy bishop on the line */
-        else if(abs(posKing/9 - a/9) == abs(posKing%9 - a%9)
-                && abs(posKing/9 - b/9) != abs(posKing%9 - b%9)){
-            if(a/9 > posKing/9)
-                dir = a%9 > posKing%9 ? 10 : 8;
-            else dir = a%9 > posKing%9 ? -8 : -10;
-             tmp = posKing;
-             while (tmp >= 0 && tmp < 81) {
-                 chk = tmp + dir;
-                 if ((hasAlly(chk) && chk != a) || !isNotEdge(tmp, chk))
-                     break;
-                 else if(hasEnemy(chk) && piece[squarePieceId[chk]].getType() != PieceType.BISHOP)
-                     break;
-                 if (hasEnemy(chk) && piece[squarePieceId[chk]].getType() == PieceType.BISHOP)
-                     return true;
-                 tmp += dir;
-             }
-         }
-        return false;
-    }
+        /* Drops are only possible on empty fields and if we are in check - only between our king
+        and a single checking piece */
+        mask.copy(pos.occupied).invert().and(checks.block);
 
-    /* If king is in check we shall hide him. This function checks if check is broken as a result of our move */
-    private boolean isKingStillInDanger(int a, int b, King ownKing){
-        int pos = ownKing.getPos();
-        int enemyPos = ownKing.getFirstCheckSource();
-        int tmp = pos;
-        int dir, chk;
-        /* We can't hide from enemy knight, unless we capture it */
-        if(piece[squarePieceId[enemyPos]].getType() == PieceType.KNIGHT
-                && !piece[squarePieceId[enemyPos]].isPromoted()
-                && b != enemyPos)
-            return true;
-        /* Horizontal checking */
-        if((pos/9 == enemyPos/9)){
-            dir = enemyPos > pos ? 1 : -1;
-            while(tmp/9 == pos/9){
-                chk = tmp + dir;
-                if(chk == b) return false;
-                if(chk == enemyPos) return true;
-                tmp = chk;
-            }
-            return true;
-        }
-        /* Vertical or diagonal checking */
-        else{
-            if(enemyPos%9 == pos%9){
-                dir = enemyPos > pos ? 9 : -9;
-            }
-            else if(enemyPos/9 < pos/9) {
-                if (enemyPos % 9 < pos % 9) dir = -10;
-                else dir = -8;
-            }
-            else{
-                if(enemyPos % 9 < pos % 9) dir = 8;
-                else dir = 10;
-            }
-            while(tmp >= 0 && tmp < 81){
-                chk = tmp + dir;
-                if(chk == b) return false;
-                if(chk == enemyPos) return true;
-                tmp = chk;
-            }
-            return true;
+        /* Can't drop pawn or lance in the last row, knight - in the last two rows */
+        lances.copy(mask);
+        knights.copy(mask);
+        for(int i = 0; i < 9; i++){
+            lances.clear(side == 0 ? i : 80 - i);
+            knights.clear(side == 0 ? i : 80 - i);
+            knights.clear(side == 0 ? i + 9 : 71 - i);
         }
+        /* Can't place two unpromoted pawns in one column */
+        pawns.copy(lances);
+        pos.pieces(Position.code(side, pawn, false), tmp);
+        for(int i = tmp.pop(); i != -1; i = tmp.pop())
+            for(int j = i % 9; j < 81; j += 9)
+                pawns.clear(j);
+        /* We can't checkmate king with dropping pawn. Only a pawn dropped in front of the king gives check. */
+        if(pos.hand[side][pawn] > 0 && squareFrontEnemyKing >= 0 && squareFrontEnemyKing < 81
+                && pawns.test(squareFrontEnemyKing) && isPawnDropMate(pos, side, squareFrontEnemyKing))
+            pawns.clear(squareFrontEnemyKing);
+    }
+
+    /* Returns fields computed by computeDrops for a piece type */
+    private Bitboard dropMask(int type){
+        if(type == PieceType.PAWN.getValue()) return pawns;
+        if(type == PieceType.LANCE.getValue()) return lances;
+        if(type == PieceType.KNIGHT.getValue()) return knights;
+        return mask;
     }
 
     /**
-     * Sieve previously calculated moves and remove the invalid ones (eg. the ones which would uncover a king
-     * or not prevent king's check)
-     * @param forWhom piece ID for move validation.
+     * Checks if a move of a piece on the board may promote: the piece is neither promoted, nor a king
+     * or a golden general, and it moves from or into the promotion zone of its side. Pawns, lances and knights
+     * reaching the last rows must promote, which is always allowed.
+     * @param code piece code (see {@link Position}).
+     * @param from source field.
+     * @param to target field.
+     * @return true if the move may be made in the promoting variant.
      */
-    public void validateMoves(int forWhom){
-        p = piece[forWhom];
-        int ownKing = piece[forWhom].getOwnKingId();
-        int j = 0;
+    public static boolean mayPromote(int code, int from, int to){
+        int type = code & 7;
+        if((code & Position.PROMOTED) != 0 || type == PieceType.KING.getValue()
+                || type == PieceType.GOLDEN_GENERAL.getValue())
+            return false;
+        return code >> Position.SIDE_SHIFT == 0 ? from < 27 || to < 27 : from > 53 || to > 53;
+    }
 
-        if(!((King)piece[ownKing]).isCheck() || ((King) piece[ownKing]).getCheckCount() != 1){
-            if(((King) piece[ownKing]).getCheckCount() > 1) piece[forWhom].validMoves.clear();
-            return;
-        }
-        while(j < piece[forWhom].validMoves.size()){
-            if(piece[forWhom].validMoves.get(j) == ((King) piece[ownKing]).getFirstCheckSource() ||
-            !(isKingStillInDanger(0,piece[forWhom].validMoves.get(j), ((King)piece[ownKing])))) j++;
-            else piece[forWhom].validMoves.remove(j);
+    /* Adds a move of a piece on the board, in both variants if promotion is optional */
+    private static int addMove(int[] moves, int n, int code, int a, int b, int capture){
+        int type = code & 7, side = code >> Position.SIDE_SHIFT;
+        int row = side == 0 ? b / 9 : 8 - b / 9;
+        if(!mayPromote(code, a, b)){
+            moves[n++] = Move.of(a, b, type, false) | capture;
+            return n;
         }
+        moves[n++] = Move.of(a, b, type, true) | capture;
+        /* Pawns and lances must promote in the last row, knights - in the last two rows */
+        if(!(row == 0 && (type == PieceType.PAWN.getValue() || type == PieceType.LANCE.getValue()))
+                && !(row < 2 && type == PieceType.KNIGHT.getValue()))
+            moves[n++] = Move.of(a, b, type, false) | capture;
+        return n;
     }
 
-    /* Generate valid moves for rook */
-    private void generateRook(){
-        int column = p.getPos() % 9;
-        int row = p.getPos() / 9;
-        int tmp = p.getPos();
-        int chk;
-        /* King  */
-        boolean kingDangeredLine = false;
-        while((tmp + 1) / 9 == row){
-            chk = tmp + 1;
-            ((King) piece[enemyKing]).setUnsafe(chk);
-            if(hasAlly(chk)) break;
-            if(!kingDangeredLine) addIfValid(tmp,chk,row);
-            if(hasEnemy(chk) && squarePieceId[chk] == enemyKing) kingDangeredLine = true;
-            else if(hasEnemy(chk) && squarePieceId[chk] != enemyKing) break;
-            tmp = chk;
-        }
-        tmp = p.getPos();
-        kingDangeredLine = false;
-        while((tmp - 1) / 9 == row){
-            chk = tmp - 1;
-            ((King) piece[enemyKing]).setUnsafe(chk);
-            if(hasAlly(chk)) break;
-            if(!kingDangeredLine) addIfValid(tmp,chk,row);
-            if(hasEnemy(chk) && squarePieceId[chk] == enemyKing) kingDangeredLine = true;
-            else if(hasEnemy(chk) && squarePieceId[chk] != enemyKing) break;
-            tmp = chk;
+    /**
+     * Generates all the legal moves of the side to move, including both variants of optional promotions and drops.
+     * Unlike the per-piece methods, this one does not use the {@link Piece} objects at all.
+     * @param pos current position.
+     * @param moves output array of packed moves (see {@link Move}), 600 entries are always enough.
+     * @return number of generated moves.
+     */
+    public int generateLegalMoves(Position pos, int[] moves){
+        int side = pos.getSideToMove(), k = pos.kingSq[side];
+        int n = 0;
+        checks.compute(pos, side);
+        /* King moves are checked with the attack counts of the target field */
+        if(k != -1){
+            pos.attacks(pos.board[k], k, targets).andNot(pos.bySide[side]);
+            for(int b = targets.pop(); b != -1; b = targets.pop())
+                if(checks.kingMayEnter(pos, b))
+                    n = addMove(moves, n, pos.board[k], k, b, pos.board[b] == Position.EMPTY ? 0 : Move.CAPTURE);
         }
-        tmp = p.getPos();
-        kingDangeredLine = false;
-        while(tmp + 9 < 81){
-            chk = tmp + 9;
-            ((King) piece[enemyKing]).setUnsafe(chk);
-            if(hasAlly(chk)) break;
-            if(!kingDangeredLine) addIfValid(tmp,chk,tmp/9+1);
-            if(hasEnemy(chk) && squarePieceId[chk] == enemyKing) kingDangeredLine = true;
-            else if(hasEnemy(chk) && squarePieceId[chk] != enemyKing) break;
-            tmp = chk;
+        /* Other pieces must block or capture a checking piece and can not leave their pin ray.
+        In a double check the block mask is empty, so only the king can move. */
+        movers.copy(pos.bySide[side]);
+        if(k != -1) movers.clear(k);
+        if(checks.block.isEmpty()) movers.clearAll();
+        for(int a = movers.pop(); a != -1; a = movers.pop()){
+            int code = pos.board[a];
+            pos.attacks(code, a, targets).andNot(pos.bySide[side]).and(checks.block);
+            if(checks.pinned.test(a)) targets.and(checks.pinRay[a]);
+            for(int b = targets.pop(); b != -1; b = targets.pop())
+                n = addMove(moves, n, code, a, b, pos.board[b] == Position.EMPTY ? 0 : Move.CAPTURE);
         }
-        tmp = p.getPos();
-        kingDangeredLine = false;
-        while(tmp -9 >= 0){
-            chk = tmp - 9;
-            ((King) piece[enemyKing]).setUnsafe(chk);
-            if(hasAlly(chk)) break;
-            if(!kingDangeredLine) addIfValid(tmp,chk,tmp/9-1);
-            if(hasEnemy(chk) && squarePieceId[chk] == enemyKing) kingDangeredLine = true;
-            else if(hasEnemy(chk) && squarePieceId[chk] != enemyKing) break;
-            tmp = chk;
+        computeDrops(pos, side);
+        for(int type = 1; type < 8; type++){
+            if(pos.hand[side][type] == 0) continue;
+            targets.copy(dropMask(type));
+            for(int b = targets.pop(); b != -1; b = targets.pop())
+                moves[n++] = Move.drop(type, b);
         }
+        return n;
     }
 
-
-    /* Generate valid moves for bishop */
-    private void generateBishop(){
-        int tmp = p.getPos();
-        int chk;
-        boolean kingDangeredLine = false;
-        while(tmp + 10 < 81){
-            chk = tmp + 10;
-            if(kingDangeredLine && isNotEdge(tmp, chk))
-                ((King) piece[enemyKing]).setUnsafe(chk);
-            if(hasAlly(chk) || !addIfValid(tmp, chk, tmp / 9 + 1)) {
-                ((King) piece[enemyKing]).setUnsafe(chk);
-                break;
-            }
-            if(hasEnemy(chk) && squarePieceId[chk] == enemyKing) kingDangeredLine = true;
-            else if(hasEnemy(chk) && squarePieceId[chk] != enemyKing) break;
-
-            tmp = chk;
+    /**
+     * Checks if a move is legal in a position, without generating all the moves. Used for moves coming
+     * from elsewhere than the generator, eg. remembered by a search from another position.
+     * @param pos current position.
+     * @param move packed move (see {@link Move}); the capture flag must agree with the position.
+     * @return true if the move would be generated by {@link #generateLegalMoves(Position, int[])}.
+     */
+    public boolean isLegal(Position pos, int move){
+        /* A move from a colliding table entry may be any 20-bit number */
+        int side = pos.getSideToMove(), to = Move.to(move), type = Move.type(move);
+        if(move == Move.NONE || to >= 81) return false;
+        if(Move.isDrop(move)){
+            if(move != Move.drop(type, to) || type == PieceType.KING.getValue() || pos.hand[side][type] == 0
+                    || pos.board[to] != Position.EMPTY)
+                return false;
+            checks.compute(pos, side);
+            computeDrops(pos, side);
+            return dropMask(type).test(to);
         }
-        tmp = p.getPos();
-        kingDangeredLine = false;
-        while(tmp - 10 >= 0){
-            chk = tmp - 10;
-            if(kingDangeredLine && isNotEdge(tmp, chk))
-                ((King) piece[enemyKing]).setUnsafe(chk);
-            if(hasAlly(chk) || !addIfValid(tmp, chk, tmp / 9 - 1)) {
-                ((King) piece[enemyKing]).setUnsafe(chk);
-                break;
-            }
-            if(hasEnemy(chk) && squarePieceId[chk] == enemyKing) kingDangeredLine = true;
-            else if(hasEnemy(chk) && squarePieceId[chk] != enemyKing) break;
+        if(Move.from(move) >= 81) return false;
+        int from = Move.from(move), code = pos.board[from], target = pos.board[to];
+        checks.compute(pos, side);
+        if(code == Position.EMPTY || code >> Position.SIDE_SHIFT != side || (code & 7) != type) return false;
+        if(target != Position.EMPTY && target >> Position.SIDE_SHIFT == side) return false;
+        if(Move.isCapture(move) != (target != Position.EMPTY) || !pos.attacks(code, from, targets).test(to))
+            return false;
+        /* The promotion flag must match one of the variants of the move */
+        int n = addMove(variants, 0, code, from, to, target == Position.EMPTY ? 0 : Move.CAPTURE);
+        if(variants[0] != move && (n == 1 || variants[1] != move)) return false;
+        if(type == PieceType.KING.getValue()) return checks.kingMayEnter(pos, to);
+        return checks.allows(from, to);
+    }
 
-            tmp = chk;
+    /**
+     * Generates the legal captures and promotions of the side to move, as needed by a quiescence search.
+     * A capture is generated in both variants if promotion is optional, a promotion without a capture
+     * only in the promoting variant. Drops are never generated.
+     * @param pos current position.
+     * @param moves output array of packed moves (see {@link Move}), 600 entries are always enough.
+     * @return number of generated moves.
+     */
+    public int generateCaptures(Position pos, int[] moves){
+        int side = pos.getSideToMove(), k = pos.kingSq[side];
+        int n = 0;
+        checks.compute(pos, side);
+        if(k != -1){
+            pos.attacks(pos.board[k], k, targets).and(pos.bySide[1 - side]);
+            for(int b = targets.pop(); b != -1; b = targets.pop())
+                if(checks.kingMayEnter(pos, b))
+                    moves[n++] = Move.of(k, b, PieceType.KING.getValue(), false) | Move.CAPTURE;
         }
-        tmp = p.getPos();
-        kingDangeredLine = false;
-        while(tmp + 8 < 81){
-            chk = tmp + 8;
-            if(kingDangeredLine && isNotEdge(tmp, chk))
-                ((King) piece[enemyKing]).setUnsafe(chk);
-            else if(hasAlly(chk) || !addIfValid(tmp, chk, tmp / 9 + 1)) {
-                ((King) piece[enemyKing]).setUnsafe(chk);
-                break;
+        movers.copy(pos.bySide[side]);
+        if(k != -1) movers.clear(k);
+        if(checks.block.isEmpty()) movers.clearAll();
+        for(int a = movers.pop(); a != -1; a = movers.pop()){
+            int code = pos.board[a];
+            pos.attacks(code, a, targets).andNot(pos.bySide[side]).and(checks.block);
+            if(checks.pinned.test(a)) targets.and(checks.pinRay[a]);
+            for(int b = targets.pop(); b != -1; b = targets.pop()){
+                if(pos.board[b] != Position.EMPTY) n = addMove(moves, n, code, a, b, Move.CAPTURE);
+                else if(addMove(moves, n, code, a, b, 0) > n && Move.isPromotion(moves[n])) n++;
             }
-            if(hasEnemy(chk) && squarePieceId[chk] == enemyKing) kingDangeredLine = true;
-            else if(hasEnemy(chk) && squarePieceId[chk] != enemyKing) break;
+        }
+        return n;
+    }
 
-            tmp = chk;
+    /**
+     * Generates the legal moves of pieces on the board of the side to move which neither capture nor promote,
+     * that is the moves {@link #generateCaptures(Position, int[])} leaves out. Drops are never generated.
+     * @param pos current position.
+     * @param moves output array of packed moves (see {@link Move}), 600 entries are always enough.
+     * @return number of generated moves.
+     */
+    public int generateQuiets(Position pos, int[] moves){
+        int side = pos.getSideToMove(), k = pos.kingSq[side];
+        int n = 0;
+        checks.compute(pos, side);
+        if(k != -1){
+            pos.attacks(pos.board[k], k, targets).andNot(pos.occupied);
+            for(int b = targets.pop(); b != -1; b = targets.pop())
+                if(checks.kingMayEnter(pos, b)) moves[n++] = Move.of(k, b, PieceType.KING.getValue(), false);
         }
-        tmp = p.getPos();
-        kingDangeredLine = false;
-        while(tmp - 8 >= 0){
-            chk = tmp - 8;
-            if(kingDangeredLine && isNotEdge(tmp, chk))
-                ((King) piece[enemyKing]).setUnsafe(chk);
-            if(hasAlly(chk) || !addIfValid(tmp, chk, tmp / 9 - 1)){
-                ((King) piece[enemyKing]).setUnsafe(chk);
-                break;
+        movers.copy(pos.bySide[side]);
+        if(k != -1) movers.clear(k);
+        if(checks.block.isEmpty()) movers.clearAll();
+        for(int a = movers.pop(); a != -1; a = movers.pop()){
+            int code = pos.board[a];
+            pos.attacks(code, a, targets).andNot(pos.occupied).and(checks.block);
+            if(checks.pinned.test(a)) targets.and(checks.pinRay[a]);
+            for(int b = targets.pop(); b != -1; b = targets.pop()){
+                int m = addMove(moves, n, code, a, b, 0);
+                /* Only the variant without promotion is quiet; a forced promotion has none */
+                if(!Move.isPromotion(moves[n])) n = m;
+                else if(m == n + 2){
+                    moves[n] = moves[n + 1];
+                    n++;
+                }
             }
-            if(hasEnemy(chk) && squarePieceId[chk] == enemyKing) kingDangeredLine = true;
-            else if(hasEnemy(chk) && squarePieceId[chk] != enemyKing) break;
+        }
+        return n;
+    }
 
-            tmp = chk;
+    /**
+     * Generates the legal drops of the side to move.
+     * @param pos current position.
+     * @param moves output array of packed moves (see {@link Move}), 600 entries are always enough.
+     * @return number of generated moves.
+     */
+    public int generateDrops(Position pos, int[] moves){
+        int side = pos.getSideToMove();
+        int n = 0;
+        computeDrops(pos, checks.compute(pos, side).side);
+        for(int type = 1; type < 8; type++){
+            if(pos.hand[side][type] == 0) continue;
+            targets.copy(dropMask(type));
+            for(int b = targets.pop(); b != -1; b = targets.pop())
+                moves[n++] = Move.drop(type, b);
         }
+        return n;
     }
 
-    /* Generate valid moves for golden general */
-    private void generateGoldenGeneral(){
-        int row = p.getPos() / 9;
-        addIfValid(p.getPos(), p.getPos() + 9, row + 1);
-        addIfValid(p.getPos(), p.getPos() - 9, row - 1);
-        addIfValid(p.getPos(), p.getPos() - 1, row);
-        addIfValid(p.getPos(), p.getPos() + 1, row);
-        addIfValid(p.getPos(), p.getPos() + 10 * p.getPlayer(), row + p.getPlayer());
-        addIfValid(p.getPos(), p.getPos() + 8 * p.getPlayer(), row + p.getPlayer());
+    /* Computes the fields from which each kind of own piece would check the enemy king. A piece attacks
+    the king's field if and only if the same kind of piece of the king's side standing there attacks the piece,
+    through the same empty fields. The field left by a moving piece never opens such a line, since
+    the enemy king is not in check before the move. */
+    private void computeCheckSquares(Position pos, int side, int ek){
+        for(int pc = 1; pc < 16; pc++)
+            if(pc != Position.PROMOTED)
+                Attacks.of(((1 - side) << Position.SIDE_SHIFT) | pc, ek, pos, checkSquares[pc]);
     }
 
-    /* Generate valid moves for silver general */
-    private void generateSilverGeneral(){
-        int row = p.getPos() / 9;
-        addIfValid(p.getPos(), p.getPos() - 8, row - 1);
-        addIfValid(p.getPos(), p.getPos() + 8, row + 1);
-        addIfValid(p.getPos(), p.getPos() + 10, row +1);
-        addIfValid(p.getPos(), p.getPos() - 10, row - 1);
-        addIfValid(p.getPos(), p.getPos() + 9 * p.getPlayer(), row + p.getPlayer());
+    /* Computes own pieces whose move off their line uncovers an attack of an own sliding piece on the enemy king */
+    private void computeDiscoverers(Position pos, int side, int ek){
+        discoverers.clearAll();
+        snipers.copy(Attacks.ROOK_RAY[ek]).and(pos.byType[PieceType.ROOK.getValue()]);
+        snipers.or(tmp.copy(Attacks.BISHOP_RAY[ek]).and(pos.byType[PieceType.BISHOP.getValue()]));
+        snipers.or(tmp.copy(Attacks.LANCE_RAY[1 - side][ek]).and(pos.byType[PieceType.LANCE.getValue()])
+                .andNot(pos.promoted));
+        snipers.and(pos.bySide[side]);
+        for(int sq = snipers.pop(); sq != -1; sq = snipers.pop()){
+            tmp.copy(Attacks.between(ek, sq)).and(pos.occupied);
+            if(tmp.count() != 1 || !tmp.intersects(pos.bySide[side])) continue;
+            int p = tmp.first();
+            discoverers.set(p);
+            discoveryRay[p].copy(Attacks.between(ek, sq));
+            discoveryRay[p].set(sq);
+        }
     }
 
     /**
-     * Generates list of technically possible moves for a selected piece.
-     * Note that this function is only probabilistic -
-     * some of the generated moves may be removed later on (see {@link #validateMoves(int)}).
-     * @param pieces array of all pieces in the game.
-     * @param players array of data of the in-game players.
-     * @param squarePieceIds map of pieces location on the board
-     * @param forWhom ID of a piece we generate moves for.
+     * Generates the legal moves and drops of the side to move which check the enemy king, as needed by a mate search.
+     * Direct checks are found by intersecting the targets of every piece with the fields from which it would check
+     * the king, in the promoted form too; only pieces uncovering a line of an own sliding piece have all their moves
+     * looked at. A move is generated in the variants which give check. Unlike
+     * {@link #generateLegalMoves(Position, int[])}, no other moves are enumerated.
+     * @param pos current position.
+     * @param moves output array of packed moves (see {@link Move}), 600 entries are always enough.
+     * @return number of generated moves, 0 if the enemy has no king.
      */
-    public void generateMoves(Piece[] pieces, PlayerData[] players, int[] squarePieceIds, int forWhom){
-        piece = pieces;
-        //pdata = players;
-        squarePieceId = squarePieceIds;
-
-        p = piece[forWhom];
-        movId = forWhom;
-        enemyKing = p.getPlayer() == 1 ? 0 : 1;
-        //Piece is on a board
-        int row = p.getPos() / 9;
-        if(p.getPos() < 81){
-            // king
-            if(p.getType() == PieceType.KING) {
-                for (int i = -1; i <= 1; i++) {
-                    addIfValid(p.getPos(), p.getPos() + i, row);
-                    addIfValid(p.getPos(), p.getPos() - 9 + i, row - 1);
-                    addIfValid(p.getPos(), p.getPos() + 9 + i, row + 1);
-                }
-            }
-            // golden general
-            else if(p.getType() == PieceType.GOLDEN_GENERAL) generateGoldenGeneral();
-                // silver general
-            else if(p.getType() == PieceType.SILVER_GENERAL) {
-                if(p.isPromoted()) generateGoldenGeneral();
-                else generateSilverGeneral();
-            }
-            // knight
-            else if(p.getType() == PieceType.KNIGHT) {
-                if(p.isPromoted()) generateGoldenGeneral();
-                else {
-                    int tmp = p.getPos() + 17 * p.getPlayer();
-                    addIfValid(p.getPos(), tmp, row + 2 * p.getPlayer());
-                    tmp = p.getPos() + 19 * p.getPlayer();
-                    addIfValid(p.getPos(), tmp, row + 2 * p.getPlayer());
-
-                }
-            }
-            // lance
-            else if(p.getType() == PieceType.LANCE) {
-                if(p.isPromoted()) generateGoldenGeneral();
-                else {
-                    int player = p.getPlayer();
-                    int tmp = p.getPos();
-                    int chk;
-                    boolean kingDangeredLine = false;
-                    while(tmp >= 0 && tmp < 81){
-                        chk = tmp + 9 * player;
-                        ((King) piece[enemyKing]).setUnsafe(chk);
-                        if(hasAlly(chk)) break;
-                        if(!kingDangeredLine) addIfValid(tmp, chk, tmp / 9 + player);
-                        if(hasEnemy(chk) && squarePieceId[chk] == enemyKing) kingDangeredLine = true;
-                        else if(hasEnemy(chk) && squarePieceId[chk] != enemyKing) break;
-                        tmp = chk;
-                    }
-                }
+    public int generateChecks(Position pos, int[] moves){
+        int side = pos.getSideToMove(), k = pos.kingSq[side], ek = pos.kingSq[1 - side];
+        int n = 0;
+        if(ek == -1) return 0;
+        checks.compute(pos, side);
+        computeCheckSquares(pos, side, ek);
+        computeDiscoverers(pos, side, ek);
+        /* The king only checks by uncovering a line */
+        if(k != -1 && discoverers.test(k)){
+            pos.attacks(pos.board[k], k, targets).andNot(pos.bySide[side]).andNot(discoveryRay[k]);
+            for(int b = targets.pop(); b != -1; b = targets.pop())
+                if(checks.kingMayEnter(pos, b))
+                    n = addMove(moves, n, pos.board[k], k, b, pos.board[b] == Position.EMPTY ? 0 : Move.CAPTURE);
+        }
+        movers.copy(pos.bySide[side]);
+        if(k != -1) movers.clear(k);
+        if(checks.block.isEmpty()) movers.clearAll();
+        for(int a = movers.pop(); a != -1; a = movers.pop()){
+            int code = pos.board[a];
+            boolean discovers = discoverers.test(a);
+            pos.attacks(code, a, targets).andNot(pos.bySide[side]).and(checks.block);
+            if(checks.pinned.test(a)) targets.and(checks.pinRay[a]);
+            if(!discovers){
+                tmp.copy(checkSquares[code & 15]);
+                if((code & Position.PROMOTED) == 0) tmp.or(checkSquares[(code & 15) | Position.PROMOTED]);
+                targets.and(tmp);
             }
-            // rook or bishop
-            else if(p.getType().getValue() < 7){
-                if(p.getType() == PieceType.ROOK) generateRook();
-                else generateBishop();
-                if(p.isPromoted()){
-                    generateGoldenGeneral();
-                    generateSilverGeneral();
+            for(int b = targets.pop(); b != -1; b = targets.pop()){
+                int m = addMove(moves, n, code, a, b, pos.board[b] == Position.EMPTY ? 0 : Move.CAPTURE);
+                /* Keep the variants which check */
+                for(int i = n; i < m; i++){
+                    int pc = Move.isPromotion(moves[i]) ? (code & 15) | Position.PROMOTED : code & 15;
+                    if(discovers && !discoveryRay[a].test(b) || checkSquares[pc].test(b)) moves[n++] = moves[i];
                 }
             }
-            // pawn
-            else if(p.getType() == PieceType.PAWN){
-                if(p.isPromoted()) generateGoldenGeneral();
-                else addIfValid(p.getPos(), p.getPos() + 9 * p.getPlayer(), row + p.getPlayer());
-            }
         }
+        computeDrops(pos, side);
+        for(int type = 1; type < 8; type++){
+            if(pos.hand[side][type] == 0) continue;
+            targets.copy(dropMask(type)).and(checkSquares[type]);
+            for(int b = targets.pop(); b != -1; b = targets.pop())
+                moves[n++] = Move.drop(type, b);
+        }
+        return n;
     }
 
     /**
-     * Generates map of possible drops on a board for selected player.
-     * @param player -1 or 1.
-     * @param pdata reference to selected player's data.
+     * Generates the legal evasions of the side to move when its king is in check: king moves, captures
+     * of the checking piece and moves or drops onto the fields in between. Only the pieces attacking those fields
+     * are looked at, and in a double check only the king. Outside a check this is the same
+     * as {@link #generateLegalMoves(Position, int[])}.
+     * @param pos current position.
+     * @param moves output array of packed moves (see {@link Move}), 600 entries are always enough.
+     * @return number of generated moves.
      */
-    public void generateDrops(int player, PlayerData pdata){
-        Piece p;
-        int enemyKing = player == -1 ? 1 : 0;
-        int ownKing = player == -1 ? 0 : 1;
-        int squareFrontEnemyKing = piece[enemyKing].getPos() + 9 * -player;
-        boolean potentialMate = false;
-        boolean[] colAlreadyHasPawn = new boolean[9];
-        for(int i = 0; i < 9; i++) colAlreadyHasPawn[i] = false;
-        for(int i = 0; i < 81; i++) pdata.tray.drop[i] = 0;
-
-        for(int i = 18; i < 36; i ++)
-            if(!piece[i].isPromoted() && !piece[i].isInTray() && piece[i].getPlayer() == player)
-                colAlreadyHasPawn[piece[i].getPos() % 9] = true;
-
-        /* We can't hide king with a drop if there are multiple checking enemies */
-        if(((King) piece[ownKing]).getCheckCount() > 1){
-            for(int i = 0; i < 81; i++) pdata.tray.drop[i] = (byte)0;
-            return;
-        }
-        /* If there's only one threat, we can hide our king behind a drop */
-        else if(((King) piece[ownKing]).getCheckCount() == 1) {
-            for (int i = 0; i < 81; i++) {
-                if (isKingStillInDanger(0, i, ((King) piece[ownKing])) || squarePieceId[i] != -1)
-                    pdata.tray.drop[i] = (byte) 0;
-                else pdata.tray.drop[i] = (byte) 255;
-            }
-            //return;
+    public int generateEvasions(Position pos, int[] moves){
+        int side = pos.getSideToMove(), k = pos.kingSq[side];
+        int n = 0;
+        if(k == -1 || !checks.compute(pos, side).inCheck()) return generateLegalMoves(pos, moves);
+        pos.attacks(pos.board[k], k, targets).andNot(pos.bySide[side]);
+        for(int b = targets.pop(); b != -1; b = targets.pop())
+            if(checks.kingMayEnter(pos, b))
+                n = addMove(moves, n, pos.board[k], k, b, pos.board[b] == Position.EMPTY ? 0 : Move.CAPTURE);
+        /* A single checking piece is captured or blocked by the pieces attacking the block fields */
+        movers.copy(checks.block);
+        for(int b = movers.pop(); b != -1; b = movers.pop()){
+            int capture = pos.board[b] == Position.EMPTY ? 0 : Move.CAPTURE;
+            pos.attackersTo(b, side, attackers).clear(k);
+            for(int a = attackers.pop(); a != -1; a = attackers.pop())
+                if(checks.allows(a, b)) n = addMove(moves, n, pos.board[a], a, b, capture);
         }
-        else
-            for(int i = 0; i < 81; i++)
-                pdata.tray.drop[i] = (byte)255;
-        for(int i = 0; i < 81; i++){
-            /* Can't drop - field already occupied */
-            if(squarePieceId[i] != -1)
-                pdata.tray.drop[i] = (byte)0;
-            /* Can't drop pawn or lance in the last row */
-            else if((player == -1 && i < 9) || (player == 1 && i > 71)) {
-                pdata.tray.drop[i] &= ~(1 << PieceType.PAWN.getValue());
-                pdata.tray.drop[i] &= ~(1 << PieceType.LANCE.getValue());
-            }
-            /* Can't drop knight in the last two rows */
-            if((player == -1 && i < 18) || (player == 1 && i > 62))
-                pdata.tray.drop[i] &= ~(1 << PieceType.KNIGHT.getValue());
-            /* Can't place two unpromoted pawns in one column */
-            if(colAlreadyHasPawn[i%9]) pdata.tray.drop[i] &= ~(1 << PieceType.PAWN.getValue());
-
-        }
-        /* We cen't checkmate king with dropping pawn. */
-        if(piece[enemyKing].validMoves.size() == 0) {
-            potentialMate = true;
-            for (int i = player == -1 ? 0 : 1; i < 40; i += 2) {
-                if (!piece[i].isInTray())
-                    for (int j : piece[i].validMoves)
-                        if(j == squareFrontEnemyKing) {
-                            potentialMate = false;
-                            break;
-                        }
-                if(!potentialMate) break;
-            }
+        computeDrops(pos, side);
+        for(int type = 1; type < 8; type++){
+            if(pos.hand[side][type] == 0) continue;
+            targets.copy(dropMask(type));
+            for(int b = targets.pop(); b != -1; b = targets.pop())
+                moves[n++] = Move.drop(type, b);
         }
-        if(potentialMate) pdata.tray.drop[squareFrontEnemyKing] &= ~(1 << PieceType.PAWN.getValue());
+        return n;
     }
 
 }
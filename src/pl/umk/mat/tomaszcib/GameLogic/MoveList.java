@@ -0,0 +1,101 @@
+/**
+ * Shogi - a simple online multiplayer game of Japanese chess.
+ * Copyright (C) 2018 Tomasz Ciborski
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package pl.umk.mat.tomaszcib.GameLogic;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A growable list of packed moves (see {@link Move}) backed by an int array.<br><br>
+ * Unlike a collection of boxed integers, adding moves neither allocates nor takes a lock. The backing array is
+ * reused after {@link #clear()}, so a list which has once grown to its working size produces no garbage.
+ * Iterate with an index: <code>for(int i = 0; i &lt; list.size(); i++) list.get(i);</code>
+ */
+public final class MoveList implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private int[] moves;
+    private int size;
+
+    /**
+     * Creates an empty list with room for 16 moves.
+     */
+    public MoveList(){
+        this(16);
+    }
+
+    /**
+     * Creates an empty list.
+     * @param capacity initial capacity of the list.
+     */
+    public MoveList(int capacity){
+        moves = new int[Math.max(capacity, 1)];
+    }
+
+    /**
+     * Appends a move to the list.
+     * @param move packed move.
+     */
+    public void add(int move){
+        if(size == moves.length) moves = Arrays.copyOf(moves, 2 * size);
+        moves[size++] = move;
+    }
+
+    /**
+     * Returns a move.
+     * @param i index of the move.
+     * @return packed move.
+     */
+    public int get(int i){
+        if(i >= size) throw new IndexOutOfBoundsException("Index: " + i + ", size: " + size);
+        return moves[i];
+    }
+
+    /**
+     * Removes a move, shifting the following moves to the left.
+     * @param i index of the move.
+     */
+    public void remove(int i){
+        if(i >= size) throw new IndexOutOfBoundsException("Index: " + i + ", size: " + size);
+        System.arraycopy(moves, i + 1, moves, i, --size - i);
+    }
+
+    /**
+     * Returns number of moves in the list.
+     * @return number of moves.
+     */
+    public int size(){
+        return size;
+    }
+
+    /**
+     * Checks if the list is empty.
+     * @return true if there are no moves in the list.
+     */
+    public boolean isEmpty(){
+        return size == 0;
+    }
+
+    /**
+     * Removes all the moves from the list, keeping its capacity.
+     */
+    public void clear(){
+        size = 0;
+    }
+}
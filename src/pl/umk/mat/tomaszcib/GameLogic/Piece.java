@@ -19,12 +19,15 @@
 package pl.umk.mat.tomaszcib.GameLogic;
 
 import java.io.Serializable;
-import java.util.Vector;
 
 /**
  * Information for a single in-game piece.
  */
 public class Piece implements Serializable{
+    /**
+     * Position of a piece captured in a tray.
+     */
+    public static final int IN_TRAY = 81;
     private int player; //-1 or 1
     private PieceType type;
     private int pos;
@@ -32,9 +35,10 @@ public class Piece implements Serializable{
     private boolean inTray;
 
     /**
-     * List of valid target fields the piece can move into.
+     * List of valid moves of the piece, packed into ints (see {@link Move}). Target fields are given
+     * by {@link Move#to(int)}. Promotion flags are not set, since promotion is chosen by the player.
      */
-    public Vector<Integer> validMoves = new Vector<>();
+    public MoveList validMoves = new MoveList();
 
     /**
      * Returns a type of the piece.
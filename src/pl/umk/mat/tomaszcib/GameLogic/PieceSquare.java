@@ -0,0 +1,95 @@
+/**
+ * Shogi - a simple online multiplayer game of Japanese chess.
+ * Copyright (C) 2018 Tomasz Ciborski
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package pl.umk.mat.tomaszcib.GameLogic;
+
+/**
+ * Material and piece-square weights of the positional score kept by {@link Position#getScore()}.<br><br>
+ * The weights are given from the point of view of the first side (player -1), whose pieces move towards row 0.
+ * From them {@link #update()} builds the tables the position adds up incrementally, the same way
+ * it adds up the {@link Zobrist} keys: a signed score of every piece code on every field and of every hand count,
+ * positive for the first side. Scores are in centipawns.
+ */
+public final class PieceSquare {
+    /**
+     * Values of pieces on the board, indexed by piece code without the side bits: {@link PieceType} value,
+     * plus {@link Position#PROMOTED} for promoted pieces. The king has no value, since it is never captured.
+     */
+    public static final int[] VALUE = {
+            0, 600, 500, 350, 300, 1000, 800, 100,
+            0, 600, 600, 600, 600, 1300, 1100, 600
+    };
+    /**
+     * Values of a single piece in hand, indexed by {@link PieceType} value. A piece in hand may be dropped anywhere,
+     * so it is worth a bit more than the same piece on the board.
+     */
+    public static final int[] HAND_VALUE = {0, 660, 550, 380, 330, 1100, 880, 110};
+    /**
+     * Bonuses of pieces of the first side on fields, indexed by [piece code without the side bits][field].
+     * Pieces of the second side get the bonus of the rotated field.
+     */
+    public static final int[][] TABLE = new int[16][81];
+    /**
+     * Scores of pieces on fields, indexed by [piece code][field]: value plus bonus, negated for the second side.
+     */
+    public static final int[][] BOARD = new int[32][81];
+    /**
+     * Scores of hand counts, indexed by [side][{@link PieceType} value][count], negated for the second side.
+     * Scores of empty hands are 0.
+     */
+    public static final int[][][] HAND = new int[2][8][Zobrist.MAX_HAND + 1];
+
+    static {
+        for(int sq = 0; sq < 81; sq++){
+            int row = sq / 9, col = sq % 9;
+            /* The king stays in its camp, golds and silvers next to it */
+            TABLE[0][sq] = row == 8 ? 20 : row == 7 ? 10 : row == 6 ? -10 : -40 - 10 * (5 - row);
+            TABLE[1][sq] = row >= 6 ? 10 : 0;
+            TABLE[2][sq] = row >= 5 && row <= 7 ? 10 : 0;
+            /* Knights on the edge files have only one move */
+            TABLE[3][sq] = col == 0 || col == 8 ? -15 : 0;
+            /* Advanced pawns are closer to promotion */
+            TABLE[7][sq] = row < 6 ? 5 * (6 - row) : 0;
+            /* Pieces promoted to golds are strongest near the enemy king */
+            for(int type = 9; type < 13; type++)
+                TABLE[type][sq] = row < 3 ? 20 : 0;
+            TABLE[15][sq] = row < 3 ? 20 : 0;
+        }
+        update();
+    }
+
+    private PieceSquare(){}
+
+    /**
+     * Rebuilds {@link #BOARD} and {@link #HAND} from the weights. Positions set up before the weights are changed
+     * keep their old scores; a position picks up the new ones when it is set up again or copied
+     * (see {@link Position#copyFrom(Position)}).
+     */
+    public static void update(){
+        for(int code = 0; code < 16; code++)
+            for(int sq = 0; sq < 81; sq++){
+                BOARD[code][sq] = VALUE[code] + TABLE[code][sq];
+                BOARD[code | 1 << Position.SIDE_SHIFT][80 - sq] = -BOARD[code][sq];
+            }
+        for(int type = 1; type < 8; type++)
+            for(int count = 0; count <= Zobrist.MAX_HAND; count++){
+                HAND[0][type][count] = count * HAND_VALUE[type];
+                HAND[1][type][count] = -count * HAND_VALUE[type];
+            }
+    }
+}
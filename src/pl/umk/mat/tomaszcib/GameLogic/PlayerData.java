@@ -20,8 +20,6 @@ package pl.umk.mat.tomaszcib.GameLogic;
 
 import pl.umk.mat.tomaszcib.MainWindow;
 
-import java.util.Vector;
-
 /**
  * A class containing basic information on an in-game player.
  */
@@ -49,17 +47,88 @@ public class PlayerData{
     }
 
     /**
-     * Tray class as used for {@link #tray} variable.
+     * Tray class as used for {@link #tray} variable. Captured pieces are only counted per type; which of the pieces
+     * of a type gets dropped is decided by {@link CurrentBoard#getTrayPieceId(int, int)}.<br><br>
+     * The whole tray fits in a single long (see {@link #pack()}): 8 bits of count per {@link PieceType} value.
      */
-    public class Tray {
+    public static class Tray {
+        /**
+         * Order in which piece types are displayed in the tray: rook, bishop, gold, silver, knight, lance, pawn.
+         */
+        public static final int[] ORDER = {5, 6, 1, 2, 3, 4, 7};
+        /**
+         * Number of captured pieces of each type, indexed by {@link PieceType} value.
+         */
+        public final int[] count = new int[8];
+        /**
+         * Valid drops of each piece type, indexed by {@link PieceType} value. All the pieces of one type
+         * in the tray share the same list (see {@link CurrentBoard#getValidMoves(int)}).
+         */
+        public MoveList[] validDrops = new MoveList[8];
+
+        /**
+         * Creates an empty tray.
+         */
+        public Tray(){
+            for(int i = 0; i < 8; i++)
+                validDrops[i] = new MoveList();
+        }
+
+        /**
+         * Packs the counts of all the piece types into a single long.
+         * @return packed tray.
+         */
+        public long pack(){
+            long packed = 0;
+            for(int i = 1; i < 8; i++)
+                packed |= (long)count[i] << (8 * i);
+            return packed;
+        }
+
+        /**
+         * Replaces the counts with the packed ones.
+         * @param packed tray packed with {@link #pack()}.
+         */
+        public void unpack(long packed){
+            for(int i = 0; i < 8; i++)
+                count[i] = count(packed, i);
+        }
+
+        /**
+         * Returns number of pieces of a type in a packed tray.
+         * @param packed tray packed with {@link #pack()}.
+         * @param type {@link PieceType} value.
+         * @return number of pieces.
+         */
+        public static int count(long packed, int type){
+            return (int)(packed >>> (8 * type)) & 255;
+        }
+
         /**
-         * A vector of captured pieces IDs. Treated as reference to the {@link CurrentBoard#piece} array.
+         * Returns total number of pieces in a packed tray.
+         * @param packed tray packed with {@link #pack()}.
+         * @return number of pieces.
          */
-        public Vector<Integer> pieceId = new Vector<Integer>();
+        public static int size(long packed){
+            int n = 0;
+            for(int i = 1; i < 8; i++)
+                n += count(packed, i);
+            return n;
+        }
+
         /**
-         * A table containing information which types of pieces can be dropped on various board fields.
+         * Finds the type of a piece displayed in a slot of a packed tray, pieces being displayed in {@link #ORDER}.
+         * @param packed tray packed with {@link #pack()}.
+         * @param slot index of the slot.
+         * @return {@link PieceType} value or -1 if the slot is empty.
          */
-        public byte[] drop = new byte[81];
+        public static int typeAt(long packed, int slot){
+            for(int type : ORDER){
+                slot -= count(packed, type);
+                if(slot < 0) return type;
+            }
+            return -1;
+        }
     }
     private int id;
     /** Sets ID of the player. The ID is treated as a reference for other objects.
@@ -0,0 +1,769 @@
+/**
+ * Shogi - a simple online multiplayer game of Japanese chess.
+ * Copyright (C) 2018 Tomasz Ciborski
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package pl.umk.mat.tomaszcib.GameLogic;
+
+import java.util.Arrays;
+
+/**
+ * Bitboard representation of a game position. Unlike {@link CurrentBoard}, this class knows nothing about piece IDs,
+ * players' timers or the GUI, so many instances of it can live in one JVM.<br><br>
+ * Pieces are described with a single int <i>code</i>: bits 0-2 hold {@link PieceType} value, bit 3 is set
+ * for promoted pieces and bit 4 holds the owner's side. Sides are indexed like {@link CurrentBoard#pdata}:
+ * 0 for player -1 ("server", moves towards row a) and 1 for player 1 ("client", moves towards row i).<br><br>
+ * Methods which only read the position (attacks, attackers, pieces) use no internal buffers,
+ * so they can be called by many threads at once, as long as no thread changes the position.
+ */
+public class Position {
+    /**
+     * Value of an unoccupied field in {@link #board}.
+     */
+    public static final int EMPTY = -1;
+    /**
+     * Piece code bit of a promoted piece.
+     */
+    public static final int PROMOTED = 8;
+    /**
+     * Piece code bit shift of the owner's side.
+     */
+    public static final int SIDE_SHIFT = 4;
+    /**
+     * Letters used for pieces in the SFEN notation, indexed by {@link PieceType} value.
+     */
+    public static final String SFEN_LETTERS = "KGSNLRBP";
+    /**
+     * SFEN of the initial position of the game.
+     */
+    public static final String START_SFEN = "lnsgkgsnl/1r5b1/ppppppppp/9/9/9/PPPPPPPPP/1B5R1/LNSGKGSNL b - 1";
+
+    /**
+     * Piece code on each of the 81 fields or {@link #EMPTY}.
+     */
+    public final byte[] board = new byte[81];
+    /**
+     * Occupancy of each side.
+     */
+    public final Bitboard[] bySide = {new Bitboard(), new Bitboard()};
+    /**
+     * Fields occupied by pieces of each {@link PieceType}, regardless of the owner and promotion.
+     */
+    public final Bitboard[] byType = new Bitboard[8];
+    /**
+     * Fields occupied by promoted pieces.
+     */
+    public final Bitboard promoted = new Bitboard();
+    /**
+     * Fields occupied by any piece.
+     */
+    public final Bitboard occupied = new Bitboard();
+    /**
+     * Number of pieces of each type in the hands (trays) of both sides, indexed by [side][{@link PieceType} value].
+     * Should not be modified directly, since the counts are covered by the {@link #getKey() key} of the position.
+     */
+    public final int[][] hand = new int[2][8];
+    /**
+     * Positions of both kings, indexed by side.
+     */
+    public final int[] kingSq = {-1, -1};
+    /**
+     * Number of pieces of each side attacking each field, indexed by [side][field]. The counts are updated
+     * incrementally by {@link #put(int, int)} and {@link #remove(int)} and must not be modified directly.
+     */
+    public final byte[][] attackCount = new byte[2][81];
+    /**
+     * Fields attacked by at least one piece of each side, kept in sync with {@link #attackCount}.
+     */
+    public final Bitboard[] attacked = {new Bitboard(), new Bitboard()};
+    /* Occupancy of rows, columns, diagonals (row - column + 8) and antidiagonals (row + column)
+    used by the sliding attack tables. Bits are indexed by column, or by row for columns. */
+    final int[] rankOcc = new int[9];
+    final int[] fileOcc = new int[9];
+    final int[] diagonalOcc = new int[17];
+    final int[] antidiagonalOcc = new int[17];
+    private int sideToMove;
+    private long key;
+    private int score;
+    /* Number of moves made with makeMove and the pieces checking the side to move after each of them.
+    The stacks grow if needed, so in the steady state making moves allocates nothing. */
+    private int ply;
+    private long[] checkersLo = new long[64];
+    private long[] checkersHi = new long[64];
+    /* Scratch bitboard of the methods changing the position */
+    private final Bitboard attackers = new Bitboard();
+    /* Sliding pieces whose attacks pass through a changed field, with their attacks before the change.
+    There are only 8 sliding pieces in the game. */
+    private final int[] sliders = new int[8];
+    private final long[] slidersLo = new long[8];
+    private final long[] slidersHi = new long[8];
+
+    /**
+     * Creates an empty position.
+     */
+    public Position(){
+        for(int i = 0; i < 8; i++)
+            byType[i] = new Bitboard();
+        clear();
+    }
+
+    /**
+     * Creates a position from SFEN notation.
+     * @param sfen position in SFEN notation.
+     */
+    public Position(String sfen){
+        this();
+        setSfen(sfen);
+    }
+
+    /**
+     * Builds a piece code.
+     * @param side owner of a piece (0 or 1).
+     * @param type type of a piece.
+     * @param promoted if the piece is promoted.
+     * @return piece code.
+     */
+    public static int code(int side, int type, boolean promoted){
+        return (side << SIDE_SHIFT) | (promoted ? PROMOTED : 0) | type;
+    }
+
+    /**
+     * Converts player (-1 or 1) to side index (0 or 1).
+     * @param player -1 or 1.
+     * @return 0 or 1.
+     */
+    public static int sideOf(int player){
+        return player == -1 ? 0 : 1;
+    }
+
+    /**
+     * Converts side index (0 or 1) to player (-1 or 1).
+     * @param side 0 or 1.
+     * @return -1 or 1.
+     */
+    public static int playerOf(int side){
+        return side == 0 ? -1 : 1;
+    }
+
+    /**
+     * Indicates whose turn it is now.
+     * @return 0 or 1.
+     */
+    public int getSideToMove(){
+        return sideToMove;
+    }
+
+    /**
+     * Sets the side to move.
+     * @param side 0 or 1.
+     */
+    public void setSideToMove(int side){
+        if(side != sideToMove) key ^= Zobrist.SIDE;
+        sideToMove = side;
+        updateCheckers();
+    }
+
+    /**
+     * Returns the Zobrist key of the position, covering pieces on the board, hands and the side to move.
+     * The key is updated incrementally with every change of the position.
+     * @return 64-bit key of the position.
+     */
+    public long getKey(){
+        return key;
+    }
+
+    /**
+     * Returns the material and piece-square score of the position (see {@link PieceSquare}), covering pieces
+     * on the board and hands. The score is updated incrementally with every change of the position.
+     * @return score in centipawns, positive if the first side (player -1) is better.
+     */
+    public int getScore(){
+        return score;
+    }
+
+    /* Recomputes the score from scratch */
+    private void computeScore(){
+        score = 0;
+        for(int sq = 0; sq < 81; sq++)
+            if(board[sq] != EMPTY) score += PieceSquare.BOARD[board[sq]][sq];
+        for(int side = 0; side < 2; side++)
+            for(int type = 1; type < 8; type++)
+                score += PieceSquare.HAND[side][type][hand[side][type]];
+    }
+
+    /* Recomputes the key from scratch */
+    private void computeKey(){
+        key = sideToMove == 0 ? 0 : Zobrist.SIDE;
+        for(int sq = 0; sq < 81; sq++)
+            if(board[sq] != EMPTY) key ^= Zobrist.PIECE[board[sq]][sq];
+        for(int side = 0; side < 2; side++)
+            for(int type = 1; type < 8; type++)
+                key ^= Zobrist.HAND[side][type][hand[side][type]];
+    }
+
+    /* Changes the number of pieces in a hand, updating the key and the score */
+    private void addToHand(int side, int type, int count){
+        key ^= Zobrist.HAND[side][type][hand[side][type]];
+        score -= PieceSquare.HAND[side][type][hand[side][type]];
+        hand[side][type] += count;
+        key ^= Zobrist.HAND[side][type][hand[side][type]];
+        score += PieceSquare.HAND[side][type][hand[side][type]];
+    }
+
+    /**
+     * Returns number of moves made with {@link #makeMove(int)} and not taken back yet.
+     * @return current ply.
+     */
+    public int getPly(){
+        return ply;
+    }
+
+    /**
+     * Checks if the king of the side to move is attacked.
+     * @return true if the side to move is in check.
+     */
+    public boolean inCheck(){
+        return (checkersLo[ply] | checkersHi[ply]) != 0;
+    }
+
+    /**
+     * Computes the enemy pieces checking the king of the side to move.
+     * @param out bitboard to be overwritten.
+     * @return the out bitboard.
+     */
+    public Bitboard checkers(Bitboard out){
+        return out.set(checkersLo[ply], checkersHi[ply]);
+    }
+
+    /* Stores pieces checking the side to move at the current ply */
+    private void updateCheckers(){
+        int k = kingSq[sideToMove];
+        if(ply == checkersLo.length){
+            checkersLo = Arrays.copyOf(checkersLo, 2 * ply);
+            checkersHi = Arrays.copyOf(checkersHi, 2 * ply);
+        }
+        if(k == -1) attackers.clearAll();
+        else attackersTo(k, 1 - sideToMove, attackers);
+        checkersLo[ply] = attackers.lo;
+        checkersHi[ply] = attackers.hi;
+    }
+
+    /**
+     * Makes a move. The move must be legal, including the promotion flag of forced promotions.
+     * @param move packed move (see {@link Move}).
+     * @return undo information for {@link #unmakeMove(long)}. The move is stored in the lowest 32 bits and
+     * the captured piece code in the next 8 bits. Higher bits are not used and may carry caller's data.
+     */
+    public long makeMove(int move){
+        int side = sideToMove, to = Move.to(move), captured = EMPTY;
+        if(Move.isDrop(move)){
+            addToHand(side, Move.type(move), -1);
+            put(to, code(side, Move.type(move), false));
+        }
+        else{
+            int code = remove(Move.from(move));
+            captured = remove(to);
+            if(captured != EMPTY) addToHand(side, captured & 7, 1);
+            put(to, Move.isPromotion(move) ? code | PROMOTED : code);
+        }
+        sideToMove = 1 - side;
+        key ^= Zobrist.SIDE;
+        ply++;
+        updateCheckers();
+        return (move & 0xFFFFFFFFL) | (long)(captured & 0xFF) << 32;
+    }
+
+    /**
+     * Takes back a move made with {@link #makeMove(int)}, restoring the board, hands and the check state.
+     * @param undo value returned by {@link #makeMove(int)}.
+     */
+    public void unmakeMove(long undo){
+        int move = (int)undo, to = Move.to(move), captured = captured(undo);
+        ply--;
+        sideToMove = 1 - sideToMove;
+        key ^= Zobrist.SIDE;
+        if(Move.isDrop(move)){
+            remove(to);
+            addToHand(sideToMove, Move.type(move), 1);
+        }
+        else{
+            int code = remove(to);
+            put(Move.from(move), Move.isPromotion(move) ? code & ~PROMOTED : code);
+            if(captured != EMPTY){
+                put(to, captured);
+                addToHand(sideToMove, captured & 7, -1);
+            }
+        }
+    }
+
+    /**
+     * Passes the turn to the other side without moving, as a search does to test if a position is so good
+     * that even an extra move would not save the opponent. The side to move must not be in check.
+     * Must be taken back with {@link #unmakeNullMove()}.
+     */
+    public void makeNullMove(){
+        sideToMove = 1 - sideToMove;
+        key ^= Zobrist.SIDE;
+        ply++;
+        updateCheckers();
+    }
+
+    /**
+     * Takes back a turn passed with {@link #makeNullMove()}.
+     */
+    public void unmakeNullMove(){
+        ply--;
+        sideToMove = 1 - sideToMove;
+        key ^= Zobrist.SIDE;
+    }
+
+    /**
+     * Extracts the piece captured by a move from its undo information.
+     * @param undo value returned by {@link #makeMove(int)}.
+     * @return code of the captured piece or {@link #EMPTY}.
+     */
+    public static int captured(long undo){
+        return (byte)(undo >>> 32);
+    }
+
+    /**
+     * Removes all the pieces from the board and the hands.
+     */
+    public void clear(){
+        for(int i = 0; i < 81; i++)
+            board[i] = EMPTY;
+        for(int i = 0; i < 8; i++){
+            byType[i].clearAll();
+            hand[0][i] = 0;
+            hand[1][i] = 0;
+        }
+        bySide[0].clearAll();
+        bySide[1].clearAll();
+        promoted.clearAll();
+        occupied.clearAll();
+        for(int i = 0; i < 17; i++){
+            if(i < 9){
+                rankOcc[i] = 0;
+                fileOcc[i] = 0;
+            }
+            diagonalOcc[i] = 0;
+            antidiagonalOcc[i] = 0;
+        }
+        kingSq[0] = -1;
+        kingSq[1] = -1;
+        for(int i = 0; i < 81; i++){
+            attackCount[0][i] = 0;
+            attackCount[1][i] = 0;
+        }
+        attacked[0].clearAll();
+        attacked[1].clearAll();
+        sideToMove = 0;
+        key = 0;
+        score = 0;
+        ply = 0;
+        checkersLo[0] = 0;
+        checkersHi[0] = 0;
+    }
+
+    /**
+     * Places a piece on an empty field.
+     * @param sq target field.
+     * @param code piece code.
+     */
+    public void put(int sq, int code){
+        int side = code >> SIDE_SHIFT;
+        int n = findSliders(sq);
+        board[sq] = (byte)code;
+        key ^= Zobrist.PIECE[code][sq];
+        score += PieceSquare.BOARD[code][sq];
+        bySide[side].set(sq);
+        byType[code & 7].set(sq);
+        if((code & PROMOTED) != 0) promoted.set(sq);
+        occupied.set(sq);
+        rankOcc[sq / 9] |= 1 << (sq % 9);
+        fileOcc[sq % 9] |= 1 << (sq / 9);
+        diagonalOcc[sq / 9 - sq % 9 + 8] |= 1 << (sq % 9);
+        antidiagonalOcc[sq / 9 + sq % 9] |= 1 << (sq % 9);
+        if((code & 7) == 0) kingSq[side] = sq;
+        updateSliders(n);
+        Attacks.of(code, sq, this, attackers);
+        count(side, attackers.lo, attackers.hi, 1);
+    }
+
+    /**
+     * Removes a piece from the field.
+     * @param sq field to be cleared.
+     * @return code of the removed piece or {@link #EMPTY}.
+     */
+    public int remove(int sq){
+        int code = board[sq];
+        if(code == EMPTY) return EMPTY;
+        int n = findSliders(sq);
+        Attacks.of(code, sq, this, attackers);
+        count(code >> SIDE_SHIFT, attackers.lo, attackers.hi, -1);
+        board[sq] = EMPTY;
+        key ^= Zobrist.PIECE[code][sq];
+        score -= PieceSquare.BOARD[code][sq];
+        bySide[code >> SIDE_SHIFT].clear(sq);
+        byType[code & 7].clear(sq);
+        promoted.clear(sq);
+        occupied.clear(sq);
+        rankOcc[sq / 9] &= ~(1 << (sq % 9));
+        fileOcc[sq % 9] &= ~(1 << (sq / 9));
+        diagonalOcc[sq / 9 - sq % 9 + 8] &= ~(1 << (sq % 9));
+        antidiagonalOcc[sq / 9 + sq % 9] &= ~(1 << (sq % 9));
+        updateSliders(n);
+        return code;
+    }
+
+    /* Finds sliding pieces of both sides attacking a field and remembers their attacks */
+    private int findSliders(int sq){
+        long lo, hi;
+        int n = 0;
+        Attacks.rook(sq, this, attackers);
+        lo = attackers.lo & byType[PieceType.ROOK.getValue()].lo;
+        hi = attackers.hi & byType[PieceType.ROOK.getValue()].hi;
+        Attacks.bishop(sq, this, attackers);
+        lo |= attackers.lo & byType[PieceType.BISHOP.getValue()].lo;
+        hi |= attackers.hi & byType[PieceType.BISHOP.getValue()].hi;
+        /* A lance attacking the field stands in front of it, looking from the opposite side */
+        for(int side = 0; side < 2; side++){
+            Attacks.lance(1 - side, sq, this, attackers);
+            lo |= attackers.lo & byType[PieceType.LANCE.getValue()].lo & ~promoted.lo & bySide[side].lo;
+            hi |= attackers.hi & byType[PieceType.LANCE.getValue()].hi & ~promoted.hi & bySide[side].hi;
+        }
+        for(; lo != 0; lo &= lo - 1)
+            sliders[n++] = Long.numberOfTrailingZeros(lo);
+        for(; hi != 0; hi &= hi - 1)
+            sliders[n++] = Bitboard.SPLIT + Long.numberOfTrailingZeros(hi);
+        for(int i = 0; i < n; i++){
+            Attacks.of(board[sliders[i]], sliders[i], this, attackers);
+            slidersLo[i] = attackers.lo;
+            slidersHi[i] = attackers.hi;
+        }
+        return n;
+    }
+
+    /* Updates the attack counts of sliding pieces found by findSliders after a field has changed */
+    private void updateSliders(int n){
+        for(int i = 0; i < n; i++){
+            int code = board[sliders[i]];
+            long lo = slidersLo[i], hi = slidersHi[i];
+            Attacks.of(code, sliders[i], this, attackers);
+            count(code >> SIDE_SHIFT, lo & ~attackers.lo, hi & ~attackers.hi, -1);
+            count(code >> SIDE_SHIFT, attackers.lo & ~lo, attackers.hi & ~hi, 1);
+        }
+    }
+
+    /* Adds delta to the attack counts of a side on the given fields */
+    private void count(int side, long lo, long hi, int delta){
+        byte[] c = attackCount[side];
+        Bitboard a = attacked[side];
+        for(; lo != 0; lo &= lo - 1){
+            int sq = Long.numberOfTrailingZeros(lo);
+            c[sq] += delta;
+            if(c[sq] == 0) a.lo &= ~(1L << sq);
+            else a.lo |= 1L << sq;
+        }
+        for(; hi != 0; hi &= hi - 1){
+            int sq = Long.numberOfTrailingZeros(hi);
+            c[Bitboard.SPLIT + sq] += delta;
+            if(c[Bitboard.SPLIT + sq] == 0) a.hi &= ~(1L << sq);
+            else a.hi |= 1L << sq;
+        }
+    }
+
+    /**
+     * Rebuilds the position from the pieces of a {@link CurrentBoard}.
+     * @param piece array of all the pieces in the game.
+     * @param player player to move (-1 or 1).
+     */
+    public void setFromPieces(Piece[] piece, int player){
+        clear();
+        for(Piece p : piece){
+            int side = sideOf(p.getPlayer());
+            if(p.isInTray()) hand[side][p.getType().getValue()]++;
+            else put(p.getPos(), code(side, p.getType().getValue(), p.isPromoted()));
+        }
+        sideToMove = sideOf(player);
+        computeKey();
+        computeScore();
+        updateCheckers();
+    }
+
+    /**
+     * Makes this position a copy of another one. Moves made in the other position can not be taken back
+     * in the copy, so its ply counter starts from 0. The score is recomputed with the current
+     * {@link PieceSquare} weights.
+     * @param other copied position.
+     */
+    public void copyFrom(Position other){
+        System.arraycopy(other.board, 0, board, 0, 81);
+        for(int i = 0; i < 8; i++)
+            byType[i].copy(other.byType[i]);
+        for(int side = 0; side < 2; side++){
+            bySide[side].copy(other.bySide[side]);
+            System.arraycopy(other.hand[side], 0, hand[side], 0, 8);
+            kingSq[side] = other.kingSq[side];
+        }
+        promoted.copy(other.promoted);
+        occupied.copy(other.occupied);
+        System.arraycopy(other.rankOcc, 0, rankOcc, 0, 9);
+        System.arraycopy(other.fileOcc, 0, fileOcc, 0, 9);
+        System.arraycopy(other.diagonalOcc, 0, diagonalOcc, 0, 17);
+        System.arraycopy(other.antidiagonalOcc, 0, antidiagonalOcc, 0, 17);
+        for(int side = 0; side < 2; side++){
+            System.arraycopy(other.attackCount[side], 0, attackCount[side], 0, 81);
+            attacked[side].copy(other.attacked[side]);
+        }
+        sideToMove = other.sideToMove;
+        key = other.key;
+        computeScore();
+        ply = 0;
+        checkersLo[0] = other.checkersLo[other.ply];
+        checkersHi[0] = other.checkersHi[other.ply];
+    }
+
+    /**
+     * Sets up the position described in SFEN notation. The move number, if present, is ignored.
+     * @param sfen position in SFEN notation.
+     * @throws IllegalArgumentException if the notation is malformed.
+     */
+    public void setSfen(String sfen){
+        String[] parts = sfen.trim().split("\\s+");
+        int sq = 0;
+        boolean prom = false;
+        clear();
+        for(char c : parts[0].toCharArray()){
+            int type = SFEN_LETTERS.indexOf(Character.toUpperCase(c));
+            if(c == '/') continue;
+            if(c == '+') prom = true;
+            else if(c >= '1' && c <= '9') sq += c - '0';
+            else if(type >= 0 && sq < 81){
+                put(sq++, code(Character.isUpperCase(c) ? 0 : 1, type, prom));
+                prom = false;
+            }
+            else throw new IllegalArgumentException("Malformed SFEN board: " + parts[0]);
+        }
+        if(sq != 81) throw new IllegalArgumentException("Malformed SFEN board: " + parts[0]);
+        sideToMove = parts.length > 1 && parts[1].equals("w") ? 1 : 0;
+        if(parts.length > 2 && !parts[2].equals("-")){
+            int count = 0;
+            for(char c : parts[2].toCharArray()){
+                int type = SFEN_LETTERS.indexOf(Character.toUpperCase(c));
+                if(c >= '0' && c <= '9') count = count * 10 + c - '0';
+                else if(type > 0){
+                    hand[Character.isUpperCase(c) ? 0 : 1][type] += count == 0 ? 1 : count;
+                    count = 0;
+                }
+                else throw new IllegalArgumentException("Malformed SFEN hand: " + parts[2]);
+            }
+        }
+        for(int side = 0; side < 2; side++)
+            for(int type = 1; type < 8; type++)
+                if(hand[side][type] > Zobrist.MAX_HAND)
+                    throw new IllegalArgumentException("Malformed SFEN hand: " + parts[2]);
+        computeKey();
+        computeScore();
+        updateCheckers();
+    }
+
+    /**
+     * Converts the position to SFEN notation.
+     * @return position in SFEN notation.
+     */
+    public String toSfen(){
+        StringBuilder s = new StringBuilder();
+        int empty = 0;
+        for(int i = 0; i < 81; i++){
+            if(board[i] == EMPTY) empty++;
+            else{
+                if(empty > 0) s.append(empty);
+                empty = 0;
+                if((board[i] & PROMOTED) != 0) s.append('+');
+                char c = SFEN_LETTERS.charAt(board[i] & 7);
+                s.append(board[i] >> SIDE_SHIFT == 0 ? c : Character.toLowerCase(c));
+            }
+            if(i % 9 == 8){
+                if(empty > 0) s.append(empty);
+                empty = 0;
+                if(i < 80) s.append('/');
+            }
+        }
+        s.append(sideToMove == 0 ? " b " : " w ");
+        int length = s.length();
+        for(int side = 0; side < 2; side++)
+            for(char c : "RBGSNLP".toCharArray()){
+                int count = hand[side][SFEN_LETTERS.indexOf(c)];
+                if(count == 0) continue;
+                if(count > 1) s.append(count);
+                s.append(side == 0 ? c : Character.toLowerCase(c));
+            }
+        if(s.length() == length) s.append('-');
+        s.append(" 1");
+        return s.toString();
+    }
+
+    /**
+     * Computes fields attacked by a piece standing on a field. Sliding pieces stop on the first occupied field.
+     * @param code piece code.
+     * @param sq position of the piece.
+     * @param out bitboard to be overwritten with the attacked fields.
+     * @return the out bitboard.
+     */
+    public Bitboard attacks(int code, int sq, Bitboard out){
+        return Attacks.of(code, sq, this, out);
+    }
+
+    /**
+     * Computes fields occupied by pieces of the given code.
+     * @param code piece code.
+     * @param out bitboard to be overwritten.
+     * @return the out bitboard.
+     */
+    public Bitboard pieces(int code, Bitboard out){
+        out.copy(bySide[code >> SIDE_SHIFT]).and(byType[code & 7]);
+        if((code & PROMOTED) != 0) out.and(promoted);
+        else out.andNot(promoted);
+        return out;
+    }
+
+    /**
+     * Finds all pieces of a side attacking the field. A piece of kind K standing on field x attacks field y
+     * if and only if the same kind of piece of the opposite side standing on y attacks x, so we only need one lookup
+     * per kind of piece. Promoted silvers, knights, lances and pawns are looked up together with golden generals,
+     * king steps of promoted rooks and bishops - together with kings.
+     * @param sq attacked field.
+     * @param side attacking side (0 or 1).
+     * @param out bitboard to be overwritten with positions of the attackers.
+     * @return the out bitboard.
+     */
+    public Bitboard attackersTo(int sq, int side, Bitboard out){
+        return attackersTo(sq, side, -1, -1, out);
+    }
+
+    /**
+     * Finds all pieces of a side attacking the field as if a piece of the other side moved from one field
+     * to another, capturing a piece standing there. The position itself is not changed, so this can be used
+     * for checking moves by many threads at once.
+     * @param sq attacked field.
+     * @param side attacking side (0 or 1).
+     * @param from source field of the move or -1.
+     * @param to target field of the move or -1.
+     * @param out bitboard to be overwritten with positions of the attackers.
+     * @return the out bitboard.
+     */
+    public Bitboard attackersTo(int sq, int side, int from, int to, Bitboard out){
+        int enemy = 1 - side;
+        long ownLo = bySide[side].lo, ownHi = bySide[side].hi;
+        long goldLo = byType[PieceType.GOLDEN_GENERAL.getValue()].lo | (promoted.lo & (byType[PieceType.SILVER_GENERAL.getValue()].lo
+                | byType[PieceType.KNIGHT.getValue()].lo | byType[PieceType.LANCE.getValue()].lo | byType[PieceType.PAWN.getValue()].lo));
+        long goldHi = byType[PieceType.GOLDEN_GENERAL.getValue()].hi | (promoted.hi & (byType[PieceType.SILVER_GENERAL.getValue()].hi
+                | byType[PieceType.KNIGHT.getValue()].hi | byType[PieceType.LANCE.getValue()].hi | byType[PieceType.PAWN.getValue()].hi));
+        long kingLo = byType[PieceType.KING.getValue()].lo
+                | (promoted.lo & (byType[PieceType.ROOK.getValue()].lo | byType[PieceType.BISHOP.getValue()].lo));
+        long kingHi = byType[PieceType.KING.getValue()].hi
+                | (promoted.hi & (byType[PieceType.ROOK.getValue()].hi | byType[PieceType.BISHOP.getValue()].hi));
+        long lo, hi;
+        Bitboard b;
+
+        /* A piece standing on the target field is captured */
+        if(to >= Bitboard.SPLIT) ownHi &= ~(1L << (to - Bitboard.SPLIT));
+        else if(to >= 0) ownLo &= ~(1L << to);
+
+        /* Stepping pieces */
+        b = Attacks.PAWN[enemy][sq];
+        lo = b.lo & byType[PieceType.PAWN.getValue()].lo & ~promoted.lo;
+        hi = b.hi & byType[PieceType.PAWN.getValue()].hi & ~promoted.hi;
+        b = Attacks.KNIGHT[enemy][sq];
+        lo |= b.lo & byType[PieceType.KNIGHT.getValue()].lo & ~promoted.lo;
+        hi |= b.hi & byType[PieceType.KNIGHT.getValue()].hi & ~promoted.hi;
+        b = Attacks.SILVER[enemy][sq];
+        lo |= b.lo & byType[PieceType.SILVER_GENERAL.getValue()].lo & ~promoted.lo;
+        hi |= b.hi & byType[PieceType.SILVER_GENERAL.getValue()].hi & ~promoted.hi;
+        b = Attacks.GOLD[enemy][sq];
+        lo |= b.lo & goldLo;
+        hi |= b.hi & goldHi;
+        b = Attacks.KING[enemy][sq];
+        lo |= b.lo & kingLo;
+        hi |= b.hi & kingHi;
+
+        /* Sliding pieces, the out bitboard is used for the lookups */
+        Attacks.addLance(enemy, sq, this, from, to, out.set(0, 0));
+        lo |= out.lo & byType[PieceType.LANCE.getValue()].lo & ~promoted.lo;
+        hi |= out.hi & byType[PieceType.LANCE.getValue()].hi & ~promoted.hi;
+        Attacks.addRook(sq, this, from, to, out.set(0, 0));
+        lo |= out.lo & byType[PieceType.ROOK.getValue()].lo;
+        hi |= out.hi & byType[PieceType.ROOK.getValue()].hi;
+        Attacks.addBishop(sq, this, from, to, out.set(0, 0));
+        lo |= out.lo & byType[PieceType.BISHOP.getValue()].lo;
+        hi |= out.hi & byType[PieceType.BISHOP.getValue()].hi;
+        return out.set(lo & ownLo, hi & ownHi);
+    }
+
+    /**
+     * Computes all the fields attacked by a side.
+     * @param side attacking side (0 or 1).
+     * @param out bitboard to be overwritten.
+     * @return the out bitboard.
+     */
+    public Bitboard attackedBy(int side, Bitboard out){
+        return out.copy(attacked[side]);
+    }
+
+    /**
+     * Checks if a field is attacked by a side, using the incrementally updated attack counts.
+     * @param sq checked field.
+     * @param side attacking side (0 or 1).
+     * @return true if at least one piece of the side attacks the field.
+     */
+    public boolean isAttacked(int sq, int side){
+        return attackCount[side][sq] != 0;
+    }
+
+    /**
+     * Computes all the fields attacked by a side as if a field was empty. Used for finding fields unsafe
+     * for a king, since sliding pieces attack through it.
+     * @param side attacking side (0 or 1).
+     * @param removed field treated as empty or -1.
+     * @param out bitboard to be overwritten.
+     * @return the out bitboard.
+     */
+    public Bitboard attackedBy(int side, int removed, Bitboard out){
+        long lo = bySide[side].lo, hi = bySide[side].hi;
+        out.clearAll();
+        for(; lo != 0; lo &= lo - 1){
+            int sq = Long.numberOfTrailingZeros(lo);
+            Attacks.add(board[sq], sq, this, removed, -1, out);
+        }
+        for(; hi != 0; hi &= hi - 1){
+            int sq = Bitboard.SPLIT + Long.numberOfTrailingZeros(hi);
+            Attacks.add(board[sq], sq, this, removed, -1, out);
+        }
+        return out;
+    }
+
+    /**
+     * Computes fields lying strictly between two fields on a common row, column or diagonal.
+     * @param a first field.
+     * @param b second field.
+     * @param out bitboard to be overwritten, left empty if the fields are not aligned or adjacent.
+     * @return the out bitboard.
+     */
+    public static Bitboard between(int a, int b, Bitboard out){
+        return out.copy(Attacks.between(a, b));
+    }
+}
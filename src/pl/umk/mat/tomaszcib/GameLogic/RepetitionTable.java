@@ -0,0 +1,208 @@
+/**
+ * Shogi - a simple online multiplayer game of Japanese chess.
+ * Copyright (C) 2018 Tomasz Ciborski
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package pl.umk.mat.tomaszcib.GameLogic;
+
+import java.util.Arrays;
+
+/**
+ * Registry of positions occurring in a game, used for detecting fourfold repetition (sennichite).<br><br>
+ * Positions are identified by their Zobrist keys (see {@link Position#getKey()}) and counted
+ * in a small open-addressed hash table, so recording a position and taking it back both work
+ * in constant amortized time, regardless of the length of the game. For every ply the table also remembers
+ * for how many consecutive moves the moving player has been giving check, which is needed
+ * for the perpetual check exception of the rule.
+ */
+public class RepetitionTable {
+    /**
+     * Number of occurrences of a position ending the game.
+     */
+    public static final int SENNICHITE = 4;
+    /**
+     * Result of {@link #getSennichite()}: the last position has not occurred {@link #SENNICHITE} times yet.
+     */
+    public static final int NONE = 0;
+    /**
+     * Result of {@link #getSennichite()}: the game ends with a draw.
+     */
+    public static final int DRAW = 1;
+    /**
+     * Result of {@link #getSennichite()}: the player who made the last move has been checking all the time
+     * and loses the game.
+     */
+    public static final int PERPETUAL_CHECK_BY_MOVER = 2;
+    /**
+     * Result of {@link #getSennichite()}: the player to move has been checking all the time and loses the game.
+     */
+    public static final int PERPETUAL_CHECK_BY_OPPONENT = 3;
+
+    /* Hash table of positions: key, number of occurrences (0 for empty slots) and the first ply it occurred at */
+    private long[] keys = new long[256];
+    private int[] counts = new int[256];
+    private int[] firstPly = new int[256];
+    private int size;
+    /* Keys of recorded positions and numbers of consecutive checking moves of the moving player, per ply */
+    private long[] plyKey = new long[256];
+    private int[] checkRun = new int[256];
+    private int ply = -1;
+
+    /**
+     * Removes all the recorded positions.
+     */
+    public void clear(){
+        Arrays.fill(counts, 0);
+        size = 0;
+        ply = -1;
+    }
+
+    /**
+     * Returns number of the recorded positions.
+     * @return number of positions recorded since the last {@link #clear()}.
+     */
+    public int getPly(){
+        return ply + 1;
+    }
+
+    /* Finds the slot of a key, or the empty slot where it should be inserted */
+    private int slot(long key){
+        int mask = keys.length - 1;
+        int i = (int)key & mask;
+        while(counts[i] != 0 && keys[i] != key)
+            i = (i + 1) & mask;
+        return i;
+    }
+
+    /* Doubles capacity of the hash table */
+    private void grow(){
+        long[] oldKeys = keys;
+        int[] oldCounts = counts, oldFirstPly = firstPly;
+        keys = new long[2 * oldKeys.length];
+        counts = new int[2 * oldKeys.length];
+        firstPly = new int[2 * oldKeys.length];
+        for(int i = 0; i < oldKeys.length; i++)
+            if(oldCounts[i] != 0){
+                int j = slot(oldKeys[i]);
+                keys[j] = oldKeys[i];
+                counts[j] = oldCounts[i];
+                firstPly[j] = oldFirstPly[i];
+            }
+    }
+
+    /**
+     * Records a position occurring after a move (or the initial position of a game).
+     * @param key Zobrist key of the position.
+     * @param check if the move gives check.
+     * @return number of occurrences of the position, including this one.
+     */
+    public int push(long key, boolean check){
+        if(2 * (size + 1) > keys.length) grow();
+        if(++ply == plyKey.length){
+            plyKey = Arrays.copyOf(plyKey, 2 * ply);
+            checkRun = Arrays.copyOf(checkRun, 2 * ply);
+        }
+        plyKey[ply] = key;
+        checkRun[ply] = !check ? 0 : ply >= 2 ? checkRun[ply - 2] + 1 : 1;
+        int i = slot(key);
+        if(counts[i] == 0){
+            keys[i] = key;
+            firstPly[i] = ply;
+            size++;
+        }
+        return ++counts[i];
+    }
+
+    /**
+     * Takes back the last recorded position.
+     */
+    public void pop(){
+        int mask = keys.length - 1;
+        int i = slot(plyKey[ply--]);
+        if(--counts[i] > 0) return;
+        size--;
+        /* Backward shift deletion: move back the following entries which would not be found otherwise */
+        for(int j = (i + 1) & mask; counts[j] != 0; j = (j + 1) & mask){
+            int home = (int)keys[j] & mask;
+            if(((j - home) & mask) >= ((j - i) & mask)){
+                keys[i] = keys[j];
+                counts[i] = counts[j];
+                firstPly[i] = firstPly[j];
+                counts[j] = 0;
+                i = j;
+            }
+        }
+    }
+
+    /**
+     * Returns number of occurrences of a position.
+     * @param key Zobrist key of the position.
+     * @return number of occurrences of the position.
+     */
+    public int count(long key){
+        return counts[slot(key)];
+    }
+
+    /**
+     * Returns the ply at which a position occurred for the first time.
+     * @param key Zobrist key of the position.
+     * @return index of the ply counted from 0, or -1 if the position has not been recorded.
+     */
+    public int firstPly(long key){
+        int i = slot(key);
+        return counts[i] == 0 ? -1 : firstPly[i];
+    }
+
+    /**
+     * Returns for how many consecutive moves the player who moved into a position has been giving check.
+     * @param ply index of the ply of the position, counted from 0.
+     * @return number of checking moves ending with the one leading to the position, 0 for a negative ply.
+     */
+    public int getCheckRun(int ply){
+        return ply < 0 ? 0 : checkRun[ply];
+    }
+
+    /**
+     * Replaces the recorded positions with a copy of the ones recorded in another table.
+     * @param other table to be copied.
+     */
+    public void copyFrom(RepetitionTable other){
+        keys = other.keys.clone();
+        counts = other.counts.clone();
+        firstPly = other.firstPly.clone();
+        size = other.size;
+        plyKey = other.plyKey.clone();
+        checkRun = other.checkRun.clone();
+        ply = other.ply;
+    }
+
+    /**
+     * Checks if the last recorded position ends the game by fourfold repetition. Since the position
+     * occurred for the first time, each move of a player who has been giving check all the time
+     * must have been a check.
+     * @return {@link #NONE}, {@link #DRAW}, {@link #PERPETUAL_CHECK_BY_MOVER}
+     * or {@link #PERPETUAL_CHECK_BY_OPPONENT}.
+     */
+    public int getSennichite(){
+        if(ply < 0) return NONE;
+        int i = slot(plyKey[ply]);
+        if(counts[i] < SENNICHITE) return NONE;
+        int moves = (ply - firstPly[i]) / 2;
+        if(checkRun[ply] >= moves) return PERPETUAL_CHECK_BY_MOVER;
+        if(checkRun[ply - 1] >= moves) return PERPETUAL_CHECK_BY_OPPONENT;
+        return DRAW;
+    }
+}
@@ -0,0 +1,60 @@
+/**
+ * Shogi - a simple online multiplayer game of Japanese chess.
+ * Copyright (C) 2018 Tomasz Ciborski
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package pl.umk.mat.tomaszcib.GameLogic;
+
+import java.util.Random;
+
+/**
+ * Random keys for Zobrist hashing of positions (see {@link Position#getKey()}).<br><br>
+ * A key of a position is a XOR of the keys of all the pieces on their fields, the keys of hand counts
+ * and the side key if the second side (player 1) is to move. Keys are generated from a fixed seed,
+ * so they are the same in every run of the program and on both sides of a network game.
+ */
+public final class Zobrist {
+    /**
+     * Largest possible number of pieces of one type in a hand.
+     */
+    public static final int MAX_HAND = 18;
+    /**
+     * Keys of pieces, indexed by [piece code][field].
+     */
+    public static final long[][] PIECE = new long[32][81];
+    /**
+     * Keys of hand counts, indexed by [side][{@link PieceType} value][count]. Keys of empty hands are 0.
+     */
+    public static final long[][][] HAND = new long[2][8][MAX_HAND + 1];
+    /**
+     * Key of the side to move, included if player 1 is to move.
+     */
+    public static final long SIDE;
+
+    static {
+        Random random = new Random(0x5a0b1L);
+        for(int code = 0; code < 32; code++)
+            for(int sq = 0; sq < 81; sq++)
+                PIECE[code][sq] = random.nextLong();
+        for(int side = 0; side < 2; side++)
+            for(int type = 1; type < 8; type++)
+                for(int count = 1; count <= MAX_HAND; count++)
+                    HAND[side][type][count] = random.nextLong();
+        SIDE = random.nextLong();
+    }
+
+    private Zobrist(){}
+}
@@ -20,7 +20,11 @@ package pl.umk.mat.tomaszcib.GuiAssets;
 
 import pl.umk.mat.tomaszcib.GameLogic.CurrentBoard;
 import pl.umk.mat.tomaszcib.GameLogic.HistoryItem;
+import pl.umk.mat.tomaszcib.GameLogic.Move;
+import pl.umk.mat.tomaszcib.GameLogic.MoveList;
 import pl.umk.mat.tomaszcib.GameLogic.Piece;
+import pl.umk.mat.tomaszcib.GameLogic.PlayerData;
+import pl.umk.mat.tomaszcib.GameLogic.RepetitionTable;
 import pl.umk.mat.tomaszcib.MainWindow;
 
 import javax.swing.*;
@@ -189,7 +193,9 @@ public class BoardCanvas extends Canvas implements MouseListener, MouseMotionLis
     /* Unmarks piece if selected, repaints the board */
     private void doDeselect(){
         if (selected != -1) {
-            for (int j : currentBoard.piece[selected].validMoves) {
+            MoveList moves = currentBoard.getValidMoves(selected);
+            for (int i = 0; i < moves.size(); i++) {
+                int j = Move.to(moves.get(i));
                 movable[j] = false;
                 repaintSquare(j);
             }
@@ -238,7 +244,9 @@ public class BoardCanvas extends Canvas implements MouseListener, MouseMotionLis
 
     /* Marks all valid moves for selected piece */
     private void marktAllMovableSquares(){
-        for (int j : currentBoard.piece[selected].validMoves) {
+        MoveList moves = currentBoard.getValidMoves(selected);
+        for (int i = 0; i < moves.size(); i++) {
+            int j = Move.to(moves.get(i));
             movable[j] = true;
             repaintSquare(j);
         }
@@ -284,17 +292,18 @@ public class BoardCanvas extends Canvas implements MouseListener, MouseMotionLis
             /* Clicked on tray */
             else{
                 int i = whereClicked(e.getX(), e.getY());
-                if(i < 20 && i < currentBoard.pdata[0].tray.pieceId.size()){
+                long tray0 = currentBoard.pdata[0].tray.pack(), tray1 = currentBoard.pdata[1].tray.pack();
+                if(i < 20 && i < PlayerData.Tray.size(tray0)){
                     if(currentBoard.getCurPlayer() == 1) return;
                     trayClicked = i;
-                    selected = currentBoard.pdata[0].tray.pieceId.get(trayClicked);
+                    selected = currentBoard.getTrayPieceId(-1, PlayerData.Tray.typeAt(tray0, trayClicked));
                     marktAllMovableSquares();
                     repaintTray(0);
                 }
-                else if(i - 20 < currentBoard.pdata[1].tray.pieceId.size()){
+                else if(i - 20 < PlayerData.Tray.size(tray1)){
                     if(currentBoard.getCurPlayer() == -1) return;
                     trayClicked = i - 20;
-                    selected = currentBoard.pdata[1].tray.pieceId.get(trayClicked);
+                    selected = currentBoard.getTrayPieceId(1, PlayerData.Tray.typeAt(tray1, trayClicked));
                     marktAllMovableSquares();
                     repaintTray(0);
                 }
@@ -307,7 +316,9 @@ public class BoardCanvas extends Canvas implements MouseListener, MouseMotionLis
             if(selected != -1) {
                 boolean validMove = false;
                 int i = whereClicked(e.getX(), e.getY());
-                for (int j : currentBoard.piece[selected].validMoves) {
+                MoveList moves = currentBoard.getValidMoves(selected);
+                for (int k = 0; k < moves.size(); k++) {
+                    int j = Move.to(moves.get(k));
                     if (i == j) {
                         MainWindow.connection.writeToPeer((byte)2, selected, oldClicked, j, promoMode, "DONE");
                         MainWindow.connection.writeToPeer((byte)5,
@@ -333,7 +344,8 @@ public class BoardCanvas extends Canvas implements MouseListener, MouseMotionLis
     public void setCheckmatePos(int pos){
         checkmatePos = pos;
         if(currentBoard.gameEnded == 2)
-            JOptionPane.showMessageDialog(null,Local.str[65],Local.str[66],1);
+            JOptionPane.showMessageDialog(null,
+                    Local.str[currentBoard.getSennichite() == RepetitionTable.DRAW ? 10 : 65],Local.str[66],1);
         else if(currentBoard.gameEnded == playerPov)
             JOptionPane.showMessageDialog(null,Local.str[63],Local.str[66],1);
         else JOptionPane.showMessageDialog(null,Local.str[64],Local.str[66],1);
@@ -381,6 +393,17 @@ public class BoardCanvas extends Canvas implements MouseListener, MouseMotionLis
         repaint(480, 100, 160, 160);
         repaint(480,335,160,160);
     }
+    /* Paints pieces of both packed trays, in the display order of piece types */
+    private void paintTrays(Graphics2D g2, long tray0, long tray1){
+        for(int i = 0; i < PlayerData.Tray.size(tray0) && i < 20; i++)
+            g2.drawImage(textureLoader.getTrayTexture(-1, PlayerData.Tray.typeAt(tray0, i), playerPov),
+                    480 + i % 5 * 32,
+                    (playerPov == -1 ? 335 : 100) + i / 5 * 40, 32, 40, null);
+        for(int i = 0; i < PlayerData.Tray.size(tray1) && i < 20; i++)
+            g2.drawImage(textureLoader.getTrayTexture(1, PlayerData.Tray.typeAt(tray1, i), playerPov),
+                    480 + i % 5 * 32,
+                    (playerPov == -1 ? 100 : 335) + i / 5 * 40, 32, 40, null);
+    }
     /* Repaints whole board */
     private void repaintBoard(){
         repaint(45,50,405,545);
@@ -461,16 +484,8 @@ public class BoardCanvas extends Canvas implements MouseListener, MouseMotionLis
                 //g2.setPaint(textureLoader.trayTexture);
                 //g2.fill(traySquare[i]);
                 if (i != notfill) g2.fill(traySquare[i]);
-                if (i < 20 && i < currentBoard.pdata[0].tray.pieceId.size()) {
-                    g2.drawImage(textureLoader.getTexture(currentBoard.piece[currentBoard.pdata[0].tray.pieceId.get(i)], playerPov, true),
-                            480 + i % 5 * 32,
-                            (playerPov == -1 ? 335 : 100) + i / 5 * 40, 32, 40, null);
-                } else if (i >= 20 && i - 20 < currentBoard.pdata[1].tray.pieceId.size()) {
-                    g2.drawImage(textureLoader.getTexture(currentBoard.piece[currentBoard.pdata[1].tray.pieceId.get(i - 20)], playerPov, true),
-                            480 + (i - 20) % 5 * 32,
-                            (playerPov == -1 ? 100 : 335) + (i - 20) / 5 * 40, 32, 40, null);
-                }
             }
+            paintTrays(g2, currentBoard.pdata[0].tray.pack(), currentBoard.pdata[1].tray.pack());
         }
         /* Viewing history mode */
         else{
@@ -494,16 +509,7 @@ public class BoardCanvas extends Canvas implements MouseListener, MouseMotionLis
                             48 + (80 - b) % 9 * 45, 53 + (80 - b) / 9 * 55,
                             40, 50, null);
             }
-            for(int i = 0; i < item.tray[0].size(); i++){
-                g2.drawImage(textureLoader.getTexture(HistoryItem.byteToPiece(item.tray[0].get(i)), playerPov, true),
-                        480 + i % 5 * 32,
-                        (playerPov == -1 ? 335 : 100) + i / 5 * 40, 32, 40, null);
-            }
-            for(int i = 0; i < item.tray[1].size(); i++){
-                g2.drawImage(textureLoader.getTexture(HistoryItem.byteToPiece(item.tray[1].get(i)), playerPov, true),
-                        480 + i % 5 * 32,
-                        (playerPov == -1 ? 100 : 335) + i / 5 * 40, 32, 40, null);
-            }
+            paintTrays(g2, item.tray[0], item.tray[1]);
         }
         /* Draw 3d rectangles for more fancy look. */
         g2.setPaint(Color.decode("#835C3B"));
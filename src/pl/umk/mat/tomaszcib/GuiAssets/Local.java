@@ -30,7 +30,7 @@ public final class Local {
     /**
      * An array of strings used within the program.
      */
-    final public static String[] str = new String[70];
+    final public static String[] str = new String[75];
     /**
      * A string containing letter symbols of the Shogi pieces.
      */
@@ -54,14 +54,18 @@ public final class Local {
         str[7] = "Exit";
         str[8] = "About";
         str[9] = "Rules (Wikipedia)";
+        str[10] = "Game ended with a draw. The same position occurred four times.";
+        str[11] = "Play against computer";
         str[12] = "Shogi game files (.gam)";
+        str[13] = "Computer's thinking time per move (seconds):";
+        str[14] = "Computer moves first";
         str[15] = "Chat";
         str[16] = "History";
         str[17] = "Send";
         str[18] = "Game start";
 
         str[19] = "Partner left";
-        str[20] = "Host or join a game to begin";
+        str[20] = "Host or join a game, or play against computer";
         str[21] = "L click to select piece";
         str[22] = "R to move; L on piece to change move mode";
         str[23] = "(normal move)";
@@ -104,6 +108,7 @@ public final class Local {
         str[54] = "Do you really want to disconnect?";
         str[55] = "Do you really want to exit?";
 
+        str[56] = "Computer";
         str[57] = "This file already exists? Do you want to overwrite?";
         str[58] = "Could not save/open the selected file.";
         str[59] = "Your name must not be empty!";
@@ -119,6 +124,11 @@ public final class Local {
 
         str[68] = "Could not retreive game data.";
         str[69] = "Game successfuly saved!";
+        str[70] = "Computer's searching threads:";
+        str[71] = "Find mate";
+        str[72] = "Mate in %d: %s";
+        str[73] = "There is no mate by checks.";
+        str[74] = "No mate found in %d seconds.";
 
         pieceLetterId = "KGSNLRBP";
 
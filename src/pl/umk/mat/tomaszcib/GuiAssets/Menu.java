@@ -33,7 +33,7 @@ import java.io.*;
  */
 public class Menu extends JMenuBar {
     private JMenu[] menu = new JMenu[2];
-    private JMenuItem[] menuItem = new JMenuItem[7];
+    private JMenuItem[] menuItem = new JMenuItem[9];
 
     /**
      * Main and only constructor. Called from within {@link MainWindow} class on program startup.
@@ -45,8 +45,13 @@ public class Menu extends JMenuBar {
         }
         for(int i = 0; i < 7; i++)
             menuItem[i] = new JMenuItem(Local.str[i + 3]);
+        menuItem[7] = new JMenuItem(Local.str[11]);
+        menuItem[8] = new JMenuItem(Local.str[71]);
         menu[0].add(menuItem[0]);
         menu[0].add(menuItem[1]);
+        menu[0].add(menuItem[7]);
+        menu[0].addSeparator();
+        menu[0].add(menuItem[8]);
         menu[0].addSeparator();
         menu[0].add(menuItem[2]);
         menu[0].addSeparator();
@@ -74,6 +79,24 @@ public class Menu extends JMenuBar {
             }
         });
 
+        /* Play against computer */
+        menuItem[7].setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_P, KeyEvent.CTRL_DOWN_MASK));
+        menuItem[7].addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent actionEvent) {
+                MainWindow.doPlayEngine();
+            }
+        });
+
+        /* Find mate */
+        menuItem[8].setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_M, KeyEvent.CTRL_DOWN_MASK));
+        menuItem[8].addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent actionEvent) {
+                MainWindow.doFindMate();
+            }
+        });
+
         /* Disconnect */
         menuItem[2].setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_D, KeyEvent.CTRL_DOWN_MASK));
         menuItem[2].addActionListener(new ActionListener() {
@@ -150,11 +173,13 @@ public class Menu extends JMenuBar {
         if(mode == 0){
             menuItem[0].setEnabled(true);
             menuItem[1].setEnabled(true);
+            menuItem[7].setEnabled(true);
             menuItem[2].setEnabled(false);
         }
         if(mode == 1 || mode == 2){
             menuItem[0].setEnabled(false);
             menuItem[1].setEnabled(false);
+            menuItem[7].setEnabled(false);
             menuItem[2].setEnabled(true);
         }
     }
@@ -89,4 +89,15 @@ public class TextureLoader{
         return tray ? op.filter(texture[val], null) : texture[val];
     }
 
+    /**
+     * Returns an image for an unpromoted piece held in a tray.
+     * @param player owner of the piece (-1 or 1).
+     * @param type {@link pl.umk.mat.tomaszcib.GameLogic.PieceType} value of the piece.
+     * @param pov current {@link pl.umk.mat.tomaszcib.GameLogic.CurrentBoard}'s point-ov-view.
+     * @return an image representation of the piece.
+     */
+    public BufferedImage getTrayTexture(int player, int type, int pov){
+        return op.filter(texture[(player == pov ? 0 : 16) + type], null);
+    }
+
 }
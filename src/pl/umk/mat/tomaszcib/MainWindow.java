@@ -18,11 +18,17 @@
 
 package pl.umk.mat.tomaszcib;
 
+import pl.umk.mat.tomaszcib.Engine.MateSolver;
+import pl.umk.mat.tomaszcib.Engine.TranspositionTable;
 import pl.umk.mat.tomaszcib.GameLogic.CurrentBoard;
+import pl.umk.mat.tomaszcib.GameLogic.Move;
+import pl.umk.mat.tomaszcib.GameLogic.Position;
+import pl.umk.mat.tomaszcib.GameLogic.RepetitionTable;
 import pl.umk.mat.tomaszcib.GuiAssets.*;
 import pl.umk.mat.tomaszcib.GuiAssets.Menu;
 import pl.umk.mat.tomaszcib.Network.Connection;
 import pl.umk.mat.tomaszcib.Network.ConnectionClient;
+import pl.umk.mat.tomaszcib.Network.ConnectionEngine;
 import pl.umk.mat.tomaszcib.Network.ConnectionServer;
 
 import java.awt.*;
@@ -62,11 +68,15 @@ public class MainWindow extends JApplet{
     private static Menu menu;
     private static Dimension panelDim = new Dimension(220,-1);
     /**
-     * Can be either {@link ConnectionServer} or {@link ConnectionClient}
+     * Can be either {@link ConnectionServer}, {@link ConnectionClient} or {@link ConnectionEngine}
      * depending on user's choice.
      */
     static public Connection connection;
     static private int mode = 0;
+    /**
+     * Time limit of the "Find mate" command, in seconds.
+     */
+    static public final int FIND_MATE_SECONDS = 10;
     /**
      * A filter applied to file choosers in the program. Only <i>*.gam</i>
      * files should be displayed in both "Open" and "Save" windows.
@@ -126,14 +136,70 @@ public class MainWindow extends JApplet{
         connection.start();
     }
 
+    /**
+     * Called from the "Play against computer" menu item. Asks the user for thinking time of the computer,
+     * number of its searching threads and who moves first, then starts a new game with a {@link ConnectionEngine} as the partner.
+     * The user always plays the first player (-1).
+     */
+    public static void doPlayEngine(){
+        JSpinner seconds = new JSpinner(new SpinnerNumberModel(5, 1, 600, 1));
+        JSpinner threads = new JSpinner(new SpinnerNumberModel(Runtime.getRuntime().availableProcessors(), 1, 256, 1));
+        JCheckBox engineStarts = new JCheckBox(Local.str[14]);
+        if(JOptionPane.showConfirmDialog(null, new Object[]{Local.str[13], seconds, Local.str[70], threads,
+                engineStarts}, Local.str[11], JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE) != 0)
+            return;
+        /* The player passed to the constructor is the one who does not make the first move */
+        canvas.currentBoard = new CurrentBoard(engineStarts.isSelected() ? -1 : 1);
+        canvas.currentBoard.pdata[0].setName(System.getProperty("user.name"));
+        canvas.currentBoard.pdata[1].setName(Local.str[56]);
+        connection = new ConnectionEngine(1, (Integer)seconds.getValue(), TranspositionTable.DEFAULT_SIZE_MB,
+                (Integer)threads.getValue());
+        canvas.setPlayerPov(-1);
+        canvas.currentBoard.updateMoves();
+        connection.start();
+    }
+
+    /**
+     * Called from the "Find mate" menu item. Looks for a mate by checks of the player to move in the position
+     * shown on the board, with a {@link MateSolver} running on its own thread for at most {@link #FIND_MATE_SECONDS},
+     * and shows the mating line in a message box. The game goes on meanwhile.
+     */
+    public static void doFindMate(){
+        final Position root = new Position();
+        root.copyFrom(canvas.currentBoard.position);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                MateSolver solver = new MateSolver();
+                int result = solver.solve(root, Long.MAX_VALUE, FIND_MATE_SECONDS * 1000L);
+                String line = "";
+                for(int move : solver.getPv())
+                    line += Move.toString(move) + " ";
+                final String message = result == MateSolver.PROVEN
+                        ? String.format(Local.str[72], solver.getMateLength(), line.trim())
+                        : result == MateSolver.DISPROVEN ? Local.str[73] : String.format(Local.str[74], FIND_MATE_SECONDS);
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        JOptionPane.showMessageDialog(null, message, Local.str[71], 1);
+                    }
+                });
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+
     /**
      * Prompts up a dialog window asking user whether to leave the program or not.
-     * Closes the game if user has selected "Yes".
+     * Closes the game if user has selected "Yes", stopping the connection (and the computer's search) first.
      */
     public static void doCloseGame(){
         if(JOptionPane.showConfirmDialog(null, Local.str[55], Local.str[7],
-                JOptionPane.OK_CANCEL_OPTION, JOptionPane.QUESTION_MESSAGE) == 0)
+                JOptionPane.OK_CANCEL_OPTION, JOptionPane.QUESTION_MESSAGE) == 0) {
+            if(connection != null) connection.close();
             System.exit(0);
+        }
     }
 
     private static void SystemMsg(String s){
@@ -147,7 +213,7 @@ public class MainWindow extends JApplet{
     public static void setWhoseMove(){
         int msgId;
         if(canvas.currentBoard.gameEnded == 2)
-            msgId = 65;
+            msgId = canvas.currentBoard.getSennichite() == RepetitionTable.DRAW ? 10 : 65;
         else if(canvas.currentBoard.gameEnded != 0){
             msgId = (canvas.currentBoard.gameEnded == canvas.getPlayerPov() ?
                     63 : 64);
@@ -164,7 +230,8 @@ public class MainWindow extends JApplet{
      *     <li><b>0:</b> no active connection, user can either host or join a game</li>
      *     <li><b>1:</b> program is waiting for a partner to connect or attempting
      *             to connect to the server</li>
-     *     <li><b>2:</b> connection with the partner has been established.</li>
+     *     <li><b>2:</b> connection with the partner has been established (or a game against the computer
+     *             has started).</li>
      * </ul>
      */
     public static void setMode(int mode) {
@@ -202,7 +269,7 @@ public class MainWindow extends JApplet{
         if(mode < 2 && canvas.currentBoard.pdata[curPlayerId].timer.isAlive())
             canvas.currentBoard.pdata[curPlayerId].timer.interrupt();
         String s = msgId == 37 ? (Local.str[37] +
-                canvas.currentBoard.pdata[connection instanceof ConnectionServer ? 1 : 0].getName()) : Local.str[msgId];
+                canvas.currentBoard.pdata[connection instanceof ConnectionClient ? 0 : 1].getName()) : Local.str[msgId];
 
         labelPanel.setSelectionLabel(s);
         SystemMsg(s);
@@ -28,7 +28,8 @@ import java.net.Socket;
 /**
  * Class for handling in-game connection and communication process with the partner.
  * Class itself is abstract, to be fully functional, must be declared either as
- * {@link ConnectionServer} or {@link ConnectionClient} within the program.
+ * {@link ConnectionServer} or {@link ConnectionClient} within the program, or as {@link ConnectionEngine}
+ * when the user plays against the computer.
  */
 public abstract class Connection extends Thread{
     int port;
@@ -38,7 +39,7 @@ public abstract class Connection extends Thread{
     private ObjectInputStream ois = null;
     private ObjectOutputStream oos = null;
     String received;
-    boolean forceClose;
+    volatile boolean forceClose;
     Socket sock = null;
 
     public abstract void run();
@@ -82,9 +83,7 @@ public abstract class Connection extends Thread{
                     int to = (int)ois.readObject();
                     boolean shouldPromote = (boolean)ois.readObject();
                     String ctrl = (String)ois.readObject();
-                    MainWindow.canvas.doMoveOnCanvas(id,from,to,shouldPromote,false);
-                    MainWindow.canvas.currentBoard.updateMoves();
-                    MainWindow.canvas.updateLabel();
+                    receiveMove(id,from,to,shouldPromote);
                     break;
 
                 case 3:
@@ -106,6 +105,19 @@ public abstract class Connection extends Thread{
 
     }
 
+    /**
+     * Executes a move made by the partner on the board and regenerates moves of the user.
+     * @param id id of a moving piece (0-40)
+     * @param from source field id (0-80 if a piece moves on board or other if is dropped from tray)
+     * @param to target field id (0-80)
+     * @param shouldPromote if piece should promote after the move
+     */
+    void receiveMove(int id, int from, int to, boolean shouldPromote){
+        MainWindow.canvas.doMoveOnCanvas(id,from,to,shouldPromote,false);
+        MainWindow.canvas.currentBoard.updateMoves();
+        MainWindow.canvas.updateLabel();
+    }
+
     /**
      * This method sends an information to the partner, using a socket declared in the same class instance.
      * @param b type of message. In-game communication protocol allows the following types of messages:
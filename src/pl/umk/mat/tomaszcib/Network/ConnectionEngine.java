@@ -0,0 +1,188 @@
+/**
+ * Shogi - a simple online multiplayer game of Japanese chess.
+ * Copyright (C) 2018 Tomasz Ciborski
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package pl.umk.mat.tomaszcib.Network;
+
+import pl.umk.mat.tomaszcib.Engine.MateSolver;
+import pl.umk.mat.tomaszcib.Engine.ParallelSearch;
+import pl.umk.mat.tomaszcib.Engine.Search;
+import pl.umk.mat.tomaszcib.Engine.TranspositionTable;
+import pl.umk.mat.tomaszcib.GameLogic.CurrentBoard;
+import pl.umk.mat.tomaszcib.GameLogic.Move;
+import pl.umk.mat.tomaszcib.GameLogic.Piece;
+import pl.umk.mat.tomaszcib.GameLogic.Position;
+import pl.umk.mat.tomaszcib.GameLogic.RepetitionTable;
+import pl.umk.mat.tomaszcib.MainWindow;
+
+import javax.swing.*;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * A local "partner" played by the computer. Instead of a socket, the moves come from a {@link ParallelSearch}
+ * run on this thread and its helper threads, and are executed on the board the same way as the moves received from a remote partner
+ * (see {@link #receiveMove(int, int, int, boolean)}).<br><br>
+ * The search is started whenever the user reports a move (message of type 2, see
+ * {@link #writeToPeer(byte, Object...)}) and works on a copy of the position, so the Event Dispatch Thread
+ * is never blocked. The thinking time is taken from the players' clocks (see {@link #getTimeBudget(CurrentBoard)}).
+ * The transposition table is kept for the whole game and aged before every search, so the results of the previous
+ * searches still help. Before the search, a {@link MateSolver} looks for a mate by checks for a tenth of the time.
+ */
+public class ConnectionEngine extends Connection{
+    private final int player;
+    private final int secondsPerMove;
+    private final TranspositionTable table;
+    private final ParallelSearch search;
+    private final MateSolver mateSolver = new MateSolver();
+    private final Position root = new Position();
+    private final RepetitionTable history = new RepetitionTable();
+    /* Released once for every move reported by the user */
+    private final Semaphore turns = new Semaphore(0);
+
+    /**
+     * Creates the computer player.
+     * @param player player moved by the computer (-1 or 1).
+     * @param secondsPerMove base thinking time per move, in seconds.
+     * @param hashMegabytes size of the transposition table in megabytes.
+     * @param threads number of searching threads.
+     */
+    public ConnectionEngine(int player, int secondsPerMove, int hashMegabytes, int threads){
+        this.player = player;
+        this.secondsPerMove = secondsPerMove;
+        table = new TranspositionTable(hashMegabytes);
+        search = new ParallelSearch(table, threads);
+        forceClose = false;
+        setDaemon(true);
+    }
+
+    /**
+     * Waits for the user's moves and answers them. Plays the first move if the computer starts the game.
+     */
+    @Override
+    public void run() {
+        try {
+            waitForBoard();
+            MainWindow.setMode(2);
+            turns.release();
+            while(!forceClose){
+                turns.acquire();
+                if(!forceClose) play();
+            }
+        }
+        catch(InterruptedException e) { }
+        search.shutdown();
+        MainWindow.setMode(0);
+    }
+
+    /**
+     * Cancels the search and stops the computer player.
+     */
+    @Override
+    public void close() {
+        forceClose = true;
+        search.stop();
+        mateSolver.stop();
+        interrupt();
+    }
+
+    /**
+     * Receives a message the user would send to a remote partner. A move (type 2) starts the search
+     * of the answer, the other messages are ignored.
+     * @param b type of message (see {@link Connection#writeToPeer(byte, Object...)}).
+     * @param objects various objects depending on type of the message.
+     */
+    @Override
+    public void writeToPeer(byte b, Object... objects){
+        if(b == 2) turns.release();
+    }
+
+    /* Waits until the board has executed the last move and regenerated the moves of the next player */
+    private void waitForBoard() throws InterruptedException {
+        final Thread[] regenerate = new Thread[1];
+        onEventThread(new Runnable() {
+            @Override
+            public void run() {
+                regenerate[0] = MainWindow.canvas.currentBoard.regenerateMovesThread;
+            }
+        });
+        if(regenerate[0].isAlive()) regenerate[0].join();
+    }
+
+    /* Searches the current position and plays the best move, if it is the computer's turn */
+    private void play() throws InterruptedException {
+        waitForBoard();
+        final CurrentBoard board = MainWindow.canvas.currentBoard;
+        if(board.gameEnded != 0 || board.getCurPlayer() != player) return;
+        onEventThread(new Runnable() {
+            @Override
+            public void run() {
+                root.copyFrom(board.position);
+                history.copyFrom(board.getRepetitions());
+            }
+        });
+        search.setHistory(history);
+        table.newSearch();
+        /* Stops are cleared before the check, so a close() coming after it stops the solver and the search */
+        search.prepare();
+        mateSolver.prepare();
+        if(forceClose) return;
+        /* A forced mate is played at once; looking for it takes at most a tenth of the time */
+        long budget = getTimeBudget(board);
+        int best = Move.NONE;
+        if(mateSolver.solve(root, Long.MAX_VALUE, budget / 10) == MateSolver.PROVEN && mateSolver.getMateLength() > 0)
+            best = mateSolver.getPv()[0];
+        else if(!forceClose) best = search.think(root, budget - budget / 10, Search.MAX_PLY);
+        final int move = best;
+        if(forceClose || move == Move.NONE) return;
+        onEventThread(new Runnable() {
+            @Override
+            public void run() {
+                if(forceClose || board != MainWindow.canvas.currentBoard) return;
+                if(Move.isDrop(move))
+                    receiveMove(board.getTrayPieceId(player, Move.type(move)), Piece.IN_TRAY, Move.to(move), false);
+                else
+                    receiveMove(board.squarePieceId[Move.from(move)], Move.from(move), Move.to(move),
+                            Move.isPromotion(move));
+            }
+        });
+    }
+
+    /**
+     * Computes the thinking time for the next move from the players' clocks. The computer thinks for the base time
+     * per move, but if it has already used more time than the user, the budget shrinks by a tenth of the lead
+     * down to a quarter of the base time.
+     * @param board current game.
+     * @return thinking time in milliseconds.
+     */
+    long getTimeBudget(CurrentBoard board){
+        int own = board.pdata[Position.sideOf(player)].timerSecondElapsed;
+        int other = board.pdata[Position.sideOf(-player)].timerSecondElapsed;
+        long millis = secondsPerMove * 1000L;
+        if(own > other) millis = Math.max(millis / 4, millis - (own - other) * 100L);
+        return millis;
+    }
+
+    /* Runs a task on the Event Dispatch Thread and waits for it, so the board is never read while it changes */
+    private static void onEventThread(Runnable task) throws InterruptedException {
+        try {
+            SwingUtilities.invokeAndWait(task);
+        } catch (InvocationTargetException e) {
+            e.printStackTrace();
+        }
+    }
+}